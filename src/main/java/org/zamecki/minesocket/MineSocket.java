@@ -2,13 +2,20 @@ package org.zamecki.minesocket;
 
 import me.lucko.fabric.api.permissions.v0.Permissions;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerChunkEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerEntityEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.minecraft.text.Text;
+import org.zamecki.minesocket.config.ConfigWatcher;
 import org.zamecki.minesocket.config.MineSocketConfiguration;
 import org.zamecki.minesocket.controller.CommandController;
+import org.zamecki.minesocket.services.AuditLog;
+import org.zamecki.minesocket.services.HttpService;
 import org.zamecki.minesocket.services.MessageService;
+import org.zamecki.minesocket.services.UnixSocketService;
 import org.zamecki.minesocket.services.WebSocketService;
 
 import static org.zamecki.minesocket.ModData.MOD_ID;
@@ -17,6 +24,9 @@ import static org.zamecki.minesocket.ModData.logger;
 public class MineSocket implements ModInitializer {
     MineSocketConfiguration config;
     WebSocketService wsService;
+    UnixSocketService unixSocketService;
+    HttpService httpService;
+    AuditLog auditLog;
     MessageService messageService;
     CommandController commandController;
 
@@ -31,11 +41,22 @@ public class MineSocket implements ModInitializer {
         registerEventsCallbacks();
 
         // Initialize the WebSocketService
-        messageService = new MessageService();
-        wsService = new WebSocketService(config, messageService);
+        messageService = new MessageService(config);
+        auditLog = new AuditLog(config);
+        wsService = new WebSocketService(config, messageService, auditLog);
+        unixSocketService = new UnixSocketService(config, messageService, auditLog);
+        httpService = new HttpService(config, messageService, auditLog);
 
         // Register the commands
-        commandController = new CommandController(wsService);
+        commandController = new CommandController(wsService, messageService);
+
+        // Apply configuration changes as soon as they are saved, rebinding if the address changed
+        config.addListener(settings -> {
+            wsService.tryToReload();
+            unixSocketService.reload();
+            httpService.reload();
+        });
+        new ConfigWatcher(config).start();
     }
 
     private void registerEventsCallbacks() {
@@ -50,31 +71,51 @@ public class MineSocket implements ModInitializer {
                 "You are using MineSocket, you can configure/use the mod by using the '/ms' command"));
         });
 
+        // A replayed event may have been waiting for this player
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> messageService.playerJoined());
+
         ServerLifecycleEvents.SERVER_STARTED.register(server -> {
             messageService.start(server, config);
-            if (!server.isDedicated() || !config.autoStart) {
+            // The transports only start on their own on a dedicated server, like the WebSocket server
+            if (!server.isDedicated() || !config.settings().autoStart()) {
                 return;
             }
 
-            if  (!wsService.tryToStart()) {
-                logger.error("Failed to start WebSocket server");
-            }
+            unixSocketService.start();
+            httpService.start();
+            wsService.tryToStart().thenAccept(state -> {
+                if (state != WebSocketService.ServerState.RUNNING) {
+                    logger.error("Failed to start WebSocket server");
+                }
+            });
         });
 
-        ServerLifecycleEvents.SERVER_STOPPING.register(server -> wsService.tryToStop());
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+            wsService.tryToStop();
+            unixSocketService.stop();
+            httpService.stop();
+            messageService.stop();
+        });
 
         ServerLifecycleEvents.END_DATA_PACK_RELOAD.register(((server, resourceManager, success) -> {
             logger.info("Reloading configuration");
             try {
                 config.reload();
-                if (!wsService.tryToReload()) {
-                    logger.error("Failed to reload WebSocket server");
-                }
+                messageService.reloadEvents(resourceManager);
             } catch (Exception e) {
                 logger.error("Error reloading configuration: {}", e.getMessage());
             }
         }));
 
+        // Telemetry counts as things happen, so publishing a frame never has to walk the worlds
+        ServerTickEvents.START_SERVER_TICK.register(server -> messageService.getTelemetry().tickStarted());
         ServerTickEvents.END_SERVER_TICK.register(server -> messageService.tick());
+        ServerTickEvents.END_SERVER_TICK.register(server -> messageService.getTelemetry().tickEnded());
+        ServerEntityEvents.ENTITY_LOAD.register((entity, world) -> messageService.getTelemetry().entityLoaded(world));
+        ServerEntityEvents.ENTITY_UNLOAD.register((entity, world) ->
+            messageService.getTelemetry().entityUnloaded(world));
+        ServerChunkEvents.CHUNK_LOAD.register((world, chunk) -> messageService.getTelemetry().chunkLoaded(world));
+        ServerChunkEvents.CHUNK_UNLOAD.register((world, chunk) -> messageService.getTelemetry().chunkUnloaded(world));
+        ServerWorldEvents.UNLOAD.register((server, world) -> messageService.getTelemetry().worldUnloaded(world));
     }
 }
@@ -1,10 +1,9 @@
 package org.zamecki.minesocket.config;
 
 import com.electronwill.nightconfig.core.*;
-import com.electronwill.nightconfig.core.io.WritingMode;
 import com.electronwill.nightconfig.toml.TomlFormat;
-import com.google.common.base.Predicates;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
@@ -17,6 +16,8 @@ import static org.zamecki.minesocket.ModData.logger;
 public abstract class Config implements UnmodifiableConfig, CommentedConfig {
     private CommentedConfig config;
     private final Path path;
+    // Content of the file as last read or written, so unchanged configurations are not rewritten
+    private String onDisk;
 
     protected Config(Path path) {
         this(path, readToml(path));
@@ -25,12 +26,13 @@ public abstract class Config implements UnmodifiableConfig, CommentedConfig {
     protected Config(Path path, String toml) {
         this.parse(toml);
         this.path = path;
+        this.onDisk = toml;
         this.load();
         this.write();
     }
 
     public <T> T add(String key, T defaultValue, String comment) {
-        return this.add(key, defaultValue, comment, Predicates.alwaysTrue());
+        return this.add(key, defaultValue, comment, value -> true);
     }
 
     public <T> T add(String key, T defaultValue, String comment, Predicate<T> validator) {
@@ -48,11 +50,39 @@ public abstract class Config implements UnmodifiableConfig, CommentedConfig {
     }
 
     public <T> T getOrAdd(String key, T defaultValue, String comment) {
-        T res = this.get(key);
-        if (res == null) res = this.add(key, defaultValue, comment);
+        Object res = this.get(key);
+        if (res == null) return this.add(key, defaultValue, comment);
+
+        // A value of the wrong type, e.g. 40 for a decimal, would only fail once it is used
+        if (!isSameType(res, defaultValue)) {
+            logger.warn("Invalid value {} for key {}: expected {}. Using default {}", res, key,
+                defaultValue.getClass().getSimpleName(), defaultValue);
+            return defaultValue;
+        }
+        @SuppressWarnings("unchecked")
+        T value = (T) res;
+        return value;
+    }
+
+    public <T> T getOrAdd(String key, T defaultValue, String comment, Predicate<T> validator) {
+        T res = this.getOrAdd(key, defaultValue, comment);
+
+        // Fall back to the default but leave the file alone, so the value can still be fixed
+        if (!validator.test(res)) {
+            logger.warn("Invalid value {} for key {}. Using default {}", res, key, defaultValue);
+            res = defaultValue;
+        }
         return res;
     }
 
+    private static boolean isSameType(Object value, Object defaultValue) {
+        // Tables come back as whatever the parser creates
+        if (defaultValue instanceof UnmodifiableConfig) {
+            return value instanceof UnmodifiableConfig;
+        }
+        return defaultValue.getClass().isInstance(value);
+    }
+
     public abstract void load();
 
     public void parse(String toml) {
@@ -60,11 +90,30 @@ public abstract class Config implements UnmodifiableConfig, CommentedConfig {
     }
 
     public void read() {
-        this.parse(readToml(this.path));
+        String toml = readToml(this.path);
+        this.parse(toml);
+        this.onDisk = toml;
     }
 
+    /**
+     * Writes the configuration back, skipped when the file already has the same content
+     */
     public void write() {
-        TomlFormat.instance().createWriter().write(this.config, this.path, WritingMode.REPLACE);
+        String toml = TomlFormat.instance().createWriter().writeToString(this.config);
+        if (toml.equals(this.onDisk)) {
+            return;
+        }
+
+        try {
+            Files.writeString(this.path, toml);
+            this.onDisk = toml;
+        } catch (IOException e) {
+            logger.error("Failed to write configuration to {}: {}", this.path, e.getMessage());
+        }
+    }
+
+    public Path getPath() {
+        return path;
     }
 
     private static String readToml(Path path) {
@@ -0,0 +1,79 @@
+package org.zamecki.minesocket.config;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * Reloads the configuration whenever its file changes on disk, without waiting for /reload.
+ * Editors often save in several steps, so changes are only applied once the file was quiet for a moment.
+ */
+public class ConfigWatcher {
+    private static final long SETTLE_MILLIS = 250;
+
+    private final MineSocketConfiguration config;
+
+    public ConfigWatcher(MineSocketConfiguration config) {
+        this.config = config;
+    }
+
+    public void start() {
+        Thread watcher = new Thread(this::run, "MineSocket-ConfigWatcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void run() {
+        Path file = config.getPath().toAbsolutePath();
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = pollChanges(key, file);
+
+                // Wait until the file stops changing
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= pollChanges(key, file);
+                }
+
+                if (changed) {
+                    reload(file);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.error("Failed to watch {} for changes: {}", file, e.getMessage());
+        }
+    }
+
+    private static boolean pollChanges(WatchKey key, Path file) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path path && path.equals(file.getFileName())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    private void reload(Path file) {
+        try {
+            // Our own writes land here too, they parse to the same snapshot and change nothing
+            config.reload();
+        } catch (Exception e) {
+            logger.error("Invalid configuration in {}, keeping the previous one: {}", file, e.getMessage());
+        }
+    }
+}
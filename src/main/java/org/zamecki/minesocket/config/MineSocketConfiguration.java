@@ -1,29 +1,134 @@
 package org.zamecki.minesocket.config;
 
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 import static org.zamecki.minesocket.ModData.MOD_ID;
+import static org.zamecki.minesocket.ModData.logger;
 
 public class MineSocketConfiguration extends Config {
-    public int port;
-    public String host;
-    public Boolean autoStart;
-    public Boolean eventBossBar;
+    // Set by load, which runs from the super constructor, so it must not have an initializer
+    private volatile Settings settings;
+    private final List<Consumer<Settings>> listeners = new CopyOnWriteArrayList<>();
 
     public MineSocketConfiguration() {
-        super(Path.of("config", MOD_ID + ".toml"));
+        this(Path.of("config", MOD_ID + ".toml"));
+    }
+
+    public MineSocketConfiguration(Path path) {
+        super(path);
     }
 
     @Override
     public void load() {
-        port = this.getOrAdd("port", 8887, "The port to listen on");
-        host = this.getOrAdd("host", "localhost", "The host to listen on");
-        autoStart = this.getOrAdd("auto_start", true, "Automatically start the WebSocket server");
-        eventBossBar = this.getOrAdd("event_boss_bar", false, "Show boss bar for events");
+        // Built completely before it is published, a failing value leaves the previous snapshot in place
+        settings = new Settings(
+            this.getOrAdd("port", 8887, "The port to listen on", port -> port > 0 && port < 65536),
+            this.getOrAdd("host", "localhost", "The host to listen on"),
+            this.getOrAdd("auto_start", true, "Automatically start the WebSocket server"),
+            this.getOrAdd("event_boss_bar", false, "Show boss bar for events"),
+            this.getOrAdd("audit_interval", 10, "Seconds between message summaries in the log",
+                interval -> interval > 0),
+            this.getOrAdd("audit_sample_rate", 100,
+                "Log the content of one in every N received messages, 0 to disable", rate -> rate >= 0),
+            this.getOrAdd("audit_file", false, "Write every received message to logs/minesocket-audit.log"),
+            this.getOrAdd("journal", true,
+                "Journal accepted messages in the world folder and replay unfinished events after a restart"),
+            this.getOrAdd("position_stream_rate", 5, "Position stream frames per second, between 1 and 20",
+                rate -> rate >= 1 && rate <= 20),
+            this.getOrAdd("position_stream_threshold", 0.25,
+                "Blocks a player has to move before the position stream resends it", threshold -> threshold >= 0),
+            this.getOrAdd("position_stream_keyframe_interval", 50, "Frames between full position keyframes",
+                interval -> interval > 0),
+            this.getOrAdd("drain_budget", 256, "Maximum messages executed per tick", budget -> budget > 0),
+            this.getOrAdd("unix_socket", "",
+                "Path of a unix domain socket for clients on the same host, empty to disable"),
+            this.getOrAdd("http_port", 0, "Port for POST /message and /batch on the same host, 0 to disable",
+                port -> port >= 0 && port < 65536),
+            this.getOrAdd("event_tick_budget_micros", 2000,
+                "Average microseconds an event may take per tick before it is suspended, 0 to disable",
+                budget -> budget >= 0),
+            this.getOrAdd("event_total_budget_millis", 10000,
+                "Milliseconds an event may take over its whole run before it is stopped, 0 to disable",
+                budget -> budget >= 0),
+            this.getOrAdd("event_suspend_ticks", 100, "Ticks an event over its tick budget is suspended for",
+                ticks -> ticks > 0),
+            this.getOrAdd("session_resume_seconds", 60,
+                "Seconds a dropped client can resume its session and get the frames it missed",
+                seconds -> seconds >= 0),
+            this.getOrAdd("session_replay_frames", 256, "Recent frames kept per topic for resuming clients",
+                frames -> frames >= 0),
+            this.getOrAdd("load_elevated_mspt", 40,
+                "Average milliseconds per tick above which MineSocket halves its own work", mspt -> mspt > 0),
+            this.getOrAdd("load_critical_mspt", 50,
+                "Average milliseconds per tick above which MineSocket cuts its own work to a quarter",
+                mspt -> mspt > 0),
+            this.getOrAdd("load_recover_ticks", 200,
+                "Ticks the server has to stay below a threshold before MineSocket restores one level of work",
+                ticks -> ticks > 0),
+            this.getOrAdd("telemetry_interval", 20, "Ticks between frames of the telemetry topic",
+                ticks -> ticks > 0),
+            loadConnections(this.getOrAdd("connections", this.createSubConfig(),
+                "Lane and weight per connection, e.g. [connections.modbot] lane = \"admin\" weight = 4. "
+                    + "Clients pick the name through their path, restrict it with token = \"secret\" "
+                    + "(sent as ?token= or an Authorization: Bearer header) and addresses = [\"127.0.0.1\"]. "
+                    + "[connections.http] restricts the HTTP endpoint, \"http\" and \"unix\" cannot be picked by clients"))
+        );
+    }
+
+    private static Map<String, Settings.ConnectionSettings> loadConnections(CommentedConfig table) {
+        Map<String, Settings.ConnectionSettings> settings = new HashMap<>();
+        for (UnmodifiableConfig.Entry entry : table.entrySet()) {
+            if (entry.getValue() instanceof UnmodifiableConfig connection) {
+                Number weight = connection.getOrElse("weight", 1);
+                List<?> addresses = connection.getOrElse("addresses", List.of());
+                settings.put(entry.getKey(), new Settings.ConnectionSettings(
+                    connection.getOrElse("lane", ""), Math.max(1, weight.intValue()),
+                    connection.getOrElse("token", ""), addresses.stream().map(String::valueOf).toList()));
+            }
+        }
+        return Map.copyOf(settings);
     }
 
-    public void reload() {
+    /**
+     * @return the current configuration snapshot
+     */
+    public Settings settings() {
+        return settings;
+    }
+
+    /**
+     * Registers a callback for every reload that changes the configuration.
+     * Callbacks run on the thread doing the reload, which is not necessarily the server thread.
+     */
+    public void addListener(Consumer<Settings> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Reads the file again and publishes the new snapshot
+     *
+     * @throws RuntimeException if the file cannot be parsed, the previous snapshot stays in place
+     */
+    public synchronized void reload() {
+        Settings previous = settings;
         this.read();
         this.load();
+        this.write();
+
+        if (settings.equals(previous)) {
+            return;
+        }
+        logger.info("Configuration changed");
+        for (Consumer<Settings> listener : listeners) {
+            listener.accept(settings);
+        }
     }
 }
@@ -0,0 +1,80 @@
+package org.zamecki.minesocket.config;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of {@link MineSocketConfiguration}.
+ * A reload publishes a new snapshot as a whole, so readers never see a half applied configuration.
+ * Read it once per operation and keep the local, instead of calling {@link MineSocketConfiguration#settings()}
+ * for every field.
+ */
+public record Settings(
+    int port,
+    String host,
+    boolean autoStart,
+    boolean eventBossBar,
+    int auditInterval,
+    int auditSampleRate,
+    boolean auditFile,
+    boolean journal,
+    int positionStreamRate,
+    double positionStreamThreshold,
+    int positionStreamKeyframeInterval,
+    int drainBudget,
+    String unixSocket,
+    int httpPort,
+    int eventTickBudgetMicros,
+    int eventTotalBudgetMillis,
+    int eventSuspendTicks,
+    int sessionResumeSeconds,
+    int sessionReplayFrames,
+    int loadElevatedMspt,
+    int loadCriticalMspt,
+    int loadRecoverTicks,
+    int telemetryInterval,
+    Map<String, ConnectionSettings> connections
+) {
+    /**
+     * Per connection ingress settings, keyed by the path a client connects to (ws://host:port/name),
+     * or by "http" for every HTTP request and "unix" for every unix socket client.
+     * The path is chosen by the client, so a name without a token or addresses is trusted as given.
+     * Unix socket clients are not checked, access to the socket file decides who can connect.
+     *
+     * @param lane      lane all of the connection's messages go to, empty to classify by verb
+     * @param weight    share of its lane the connection gets relative to the others
+     * @param token     secret a WebSocket or HTTP client must present to use this name, empty for none
+     * @param addresses remote addresses allowed to use this name, empty for any
+     */
+    public record ConnectionSettings(String lane, int weight, String token, List<String> addresses) {
+        public static final ConnectionSettings DEFAULT = new ConnectionSettings("", 1, "", List.of());
+
+        /**
+         * @param token   the token the client presented, null if none
+         * @param address the client's remote address
+         * @return whether the client may connect under this name
+         */
+        public boolean admits(String token, InetAddress address) {
+            return acceptsToken(token) && allowsAddress(address);
+        }
+
+        /**
+         * @param token the token the client presented, null if none
+         */
+        public boolean acceptsToken(String token) {
+            return this.token.isEmpty() || token != null && MessageDigest.isEqual(
+                this.token.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public boolean allowsAddress(InetAddress address) {
+            return addresses.isEmpty() || address != null && addresses.contains(address.getHostAddress());
+        }
+    }
+
+    public ConnectionSettings getConnectionSettings(String name) {
+        return connections.getOrDefault(name, ConnectionSettings.DEFAULT);
+    }
+}
@@ -1,18 +1,25 @@
 package org.zamecki.minesocket.controller;
 
+import com.mojang.brigadier.arguments.LongArgumentType;
 import com.mojang.brigadier.context.CommandContext;
 import me.lucko.fabric.api.permissions.v0.Permissions;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.minecraft.server.command.CommandManager;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.text.Text;
+import org.zamecki.minesocket.event.EventManager;
+import org.zamecki.minesocket.services.MessageScheduler;
+import org.zamecki.minesocket.services.MessageService;
 import org.zamecki.minesocket.services.WebSocketService;
+import org.zamecki.minesocket.services.WorldSnapshot;
+
+import java.util.List;
 
 import static org.zamecki.minesocket.ModData.MOD_ID;
 
 public class CommandController {
 
-    public CommandController(WebSocketService wsService) {
+    public CommandController(WebSocketService wsService, MessageService messageService) {
         CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) ->
             dispatcher.register(CommandManager.literal("ms")
                 // Uses the LuckPerms permission system to check if the player has the permission to use the command
@@ -20,7 +27,11 @@ public class CommandController {
                 .executes(this::sendHelp)
                 .then(CommandManager.literal("help").executes(this::sendHelp))
                 .then(CommandManager.literal("start").executes(ctx -> startWebSocket(ctx, wsService)))
-                .then(CommandManager.literal("stop").executes(ctx -> stopWebSocket(ctx, wsService)))));
+                .then(CommandManager.literal("stop").executes(ctx -> stopWebSocket(ctx, wsService)))
+                .then(CommandManager.literal("events").executes(ctx -> listEvents(ctx, messageService)))
+                .then(CommandManager.literal("cancel")
+                    .then(CommandManager.argument("id", LongArgumentType.longArg(1))
+                        .executes(ctx -> cancelScheduled(ctx, messageService))))));
     }
 
     private int sendHelp(CommandContext<ServerCommandSource> ctx) {
@@ -31,42 +42,104 @@ public class CommandController {
                 /ms - Main command
                 /ms help - Show this help message
                 /ms start - Start the WebSocket server
-                /ms stop - Stop the WebSocket server"""), false);
+                /ms stop - Stop the WebSocket server
+                /ms events - Show running events and their tick cost
+                /ms cancel <id> - Cancel a scheduled message"""), false);
         return 1;
     }
 
     private int startWebSocket(CommandContext<ServerCommandSource> ctx, WebSocketService wsService) {
-        if (!wsService.isRunning()) {
-            if (!wsService.tryToStart()) {
+        if (wsService.isRunning()) {
+            ctx.getSource().sendFeedback(() -> Text.translatableWithFallback(
+                "command." + MOD_ID + ".already_running",
+                "WebSocket server is already running"), false);
+            return 1;
+        }
+
+        ctx.getSource().sendFeedback(() -> Text.translatableWithFallback(
+            "command." + MOD_ID + ".starting",
+            "Starting WebSocket server..."), false);
+
+        // Report back once the server has bound, without holding up the tick
+        wsService.tryToStart().thenAccept(state -> runOnServer(ctx, () -> {
+            if (state != WebSocketService.ServerState.RUNNING) {
                 ctx.getSource().sendFeedback(() -> Text.translatableWithFallback(
                     "command." + MOD_ID + ".start_error",
                     "An error occurred while starting the WebSocket server"), false);
-                return 0;
+                return;
             }
             ctx.getSource().sendFeedback(() -> Text.translatableWithFallback(
                 "command." + MOD_ID + ".started",
                 "WebSocket server started"), false);
-        } else {
-            ctx.getSource().sendFeedback(() -> Text.translatableWithFallback(
-                "command." + MOD_ID + ".already_running",
-                "WebSocket server is already running"), false);
-        }
+        }));
         return 1;
     }
 
     private int stopWebSocket(CommandContext<ServerCommandSource> ctx, WebSocketService wsService) {
-        if (wsService.isRunning()) {
-            if (!wsService.tryToStop()) {
+        if (!wsService.isRunning()) {
+            ctx.getSource().sendFeedback(() -> Text.translatableWithFallback("command." + MOD_ID + ".not_running",
+                "WebSocket server is not running"), false);
+            return 1;
+        }
+
+        ctx.getSource().sendFeedback(() -> Text.translatableWithFallback("command." + MOD_ID + ".stopping",
+            "Stopping WebSocket server..."), false);
+
+        wsService.tryToStop().thenAccept(state -> runOnServer(ctx, () -> {
+            if (state != WebSocketService.ServerState.STOPPED) {
                 ctx.getSource().sendFeedback(() -> Text.translatableWithFallback("command." + MOD_ID + ".stop_error",
                     "An error occurred while stopping the WebSocket server"), false);
-                return 0;
+                return;
             }
             ctx.getSource().sendFeedback(() -> Text.translatableWithFallback("command." + MOD_ID + ".stopped",
                 "WebSocket server stopped"), false);
-        } else {
-            ctx.getSource().sendFeedback(() -> Text.translatableWithFallback("command." + MOD_ID + ".not_running",
-                "WebSocket server is not running"), false);
+        }));
+        return 1;
+    }
+
+    private int listEvents(CommandContext<ServerCommandSource> ctx, MessageService messageService) {
+        EventManager eventManager = messageService.getEventManager();
+        var events = eventManager == null ? List.<WorldSnapshot.EventSnapshot>of() : eventManager.snapshotEvents();
+        if (events.isEmpty()) {
+            ctx.getSource().sendFeedback(() -> Text.translatableWithFallback("command." + MOD_ID + ".events.none",
+                "No events are running"), false);
+        }
+        for (WorldSnapshot.EventSnapshot event : events) {
+            String status = event.suspended() ? "suspended" : "running";
+            ctx.getSource().sendFeedback(() -> Text.translatableWithFallback(
+                "command." + MOD_ID + ".events.entry",
+                "%1$s (%2$s): %3$s µs per tick, %4$s ms in total over %5$s ticks",
+                event.name(), status, Math.round(event.averageMicros()), Math.round(event.totalMillis()),
+                event.elapsedTicks()), false);
         }
+
+        if (eventManager == null) {
+            return 0;
+        }
+        for (EventManager.Offender offender : eventManager.getOffenders()) {
+            ctx.getSource().sendFeedback(() -> Text.translatableWithFallback(
+                "command." + MOD_ID + ".events.offender",
+                "Tick %1$s: %2$s %3$s, %4$s",
+                offender.tick(), offender.name(), offender.action(), offender.reason()), false);
+        }
+        return events.size();
+    }
+
+    private int cancelScheduled(CommandContext<ServerCommandSource> ctx, MessageService messageService) {
+        long id = LongArgumentType.getLong(ctx, "id");
+        MessageScheduler scheduler = messageService.getScheduler();
+        if (scheduler == null || !scheduler.cancel(id)) {
+            ctx.getSource().sendFeedback(() -> Text.translatableWithFallback("command." + MOD_ID + ".cancel.unknown",
+                "No scheduled message with id %1$s", id), false);
+            return 0;
+        }
+        ctx.getSource().sendFeedback(() -> Text.translatableWithFallback("command." + MOD_ID + ".cancel.done",
+            "Cancelled scheduled message %1$s", id), false);
         return 1;
     }
+
+    // Futures complete on WebSocket threads, feedback has to go through the server thread
+    private void runOnServer(CommandContext<ServerCommandSource> ctx, Runnable task) {
+        ctx.getSource().getServer().execute(task);
+    }
 }
@@ -0,0 +1,236 @@
+package org.zamecki.minesocket.event;
+
+import com.electronwill.nightconfig.core.Config;
+import com.electronwill.nightconfig.toml.TomlFormat;
+import com.mojang.brigadier.ParseResults;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.entity.boss.BossBar;
+import net.minecraft.particle.ParticleType;
+import net.minecraft.particle.SimpleParticleType;
+import net.minecraft.registry.Registries;
+import net.minecraft.resource.Resource;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.sound.SoundEvent;
+import net.minecraft.util.Identifier;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.zamecki.minesocket.ModData.MOD_ID;
+import static org.zamecki.minesocket.ModData.logger;
+
+/// Loads declarative events and compiles them into {@link EventPlan}s.
+///
+/// Definitions are read from config/minesocket/events/*.toml and from
+/// data/<namespace>/minesocket_events/*.toml in datapacks, for example:
+///
+/// ```toml
+/// name = "Celebration"
+/// display_name = "Celebration for {player}"
+/// duration = 100
+/// boss_bar_color = "yellow"
+///
+/// [[steps]]
+/// type = "command"
+/// command = "title @s title \"Thank you!\""
+///
+/// [[steps]]
+/// type = "particle"
+/// every = 10
+/// particle = "minecraft:heart"
+/// count = 20
+/// offset = [1.0, 1.0, 1.0]
+///
+/// [[steps]]
+/// type = "sound"
+/// at = 20
+/// sound = "minecraft:entity.player.levelup"
+///
+/// [[steps]]
+/// type = "spawn"
+/// at = 40
+/// entity = "minecraft:chicken"
+/// count = 3
+/// radius = 4.0
+/// ```
+///
+/// Commands run as and at the target player, with operator permissions.
+public class EventDefinitionLoader {
+    private static final Path CONFIG_DIRECTORY = Path.of("config", MOD_ID, "events");
+    private static final String RESOURCE_DIRECTORY = "minesocket_events";
+
+    private final MinecraftServer server;
+
+    public EventDefinitionLoader(MinecraftServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Compiles every definition, invalid ones are logged and skipped
+     */
+    public List<EventPlan> load(ResourceManager resourceManager) {
+        List<EventPlan> plans = new ArrayList<>();
+
+        if (Files.isDirectory(CONFIG_DIRECTORY)) {
+            try (Stream<Path> files = Files.list(CONFIG_DIRECTORY)) {
+                for (Path file : files.filter(path -> path.toString().endsWith(".toml")).sorted().toList()) {
+                    compile(file.toString(), fileStem(file.getFileName().toString()), Files.readString(file), plans);
+                }
+            } catch (IOException e) {
+                logger.error("Failed to read event definitions from {}: {}", CONFIG_DIRECTORY, e.getMessage());
+            }
+        }
+
+        Map<Identifier, Resource> resources = resourceManager.findResources(RESOURCE_DIRECTORY,
+            id -> id.getPath().endsWith(".toml"));
+        for (Map.Entry<Identifier, Resource> entry : resources.entrySet()) {
+            try (BufferedReader reader = entry.getValue().getReader()) {
+                String toml = reader.lines().collect(Collectors.joining("\n"));
+                String path = entry.getKey().getPath();
+                compile(entry.getKey().toString(), fileStem(path.substring(path.lastIndexOf('/') + 1)), toml, plans);
+            } catch (IOException e) {
+                logger.error("Failed to read event definition {}: {}", entry.getKey(), e.getMessage());
+            }
+        }
+
+        return plans;
+    }
+
+    private void compile(String source, String defaultName, String toml, List<EventPlan> plans) {
+        try {
+            plans.add(compile(defaultName, TomlFormat.instance().createParser().parse(toml)));
+        } catch (Exception e) {
+            logger.error("Invalid event definition {}: {}", source, e.getMessage());
+        }
+    }
+
+    private EventPlan compile(String defaultName, Config definition) {
+        String name = definition.getOrElse("name", defaultName);
+        String displayName = definition.getOrElse("display_name", name);
+        int duration = getInt(definition, "duration", 100);
+        if (duration < 1) {
+            throw new IllegalArgumentException("duration must be at least 1");
+        }
+
+        BossBar.Color color;
+        try {
+            color = BossBar.Color.valueOf(definition.getOrElse("boss_bar_color", "white").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown boss_bar_color");
+        }
+
+        List<EventPlan.Step> oneShots = new ArrayList<>();
+        List<EventPlan.Step> repeats = new ArrayList<>();
+        List<Config> steps = definition.getOrElse("steps", List.of());
+        for (int i = 0; i < steps.size(); i++) {
+            EventPlan.Step step;
+            try {
+                step = compileStep(steps.get(i));
+            } catch (Exception e) {
+                throw new IllegalArgumentException("step " + (i + 1) + ": " + e.getMessage());
+            }
+            (step.every() > 0 ? repeats : oneShots).add(step);
+        }
+        oneShots.sort(Comparator.comparingInt(EventPlan.Step::at));
+
+        return new EventPlan(name, displayName, duration, color,
+            oneShots.toArray(EventPlan.Step[]::new), repeats.toArray(EventPlan.Step[]::new));
+    }
+
+    private EventPlan.Step compileStep(Config step) {
+        int at = getInt(step, "at", 0);
+        int every = getInt(step, "every", 0);
+        if (at < 0 || every < 0) {
+            throw new IllegalArgumentException("at and every cannot be negative");
+        }
+
+        String type = step.get("type");
+        if (type == null) {
+            throw new IllegalArgumentException("missing type");
+        }
+
+        return switch (type.toLowerCase(Locale.ROOT)) {
+            case "command" -> {
+                String command = require(step, "command");
+                if (command.startsWith("/")) {
+                    command = command.substring(1);
+                }
+                ParseResults<ServerCommandSource> parsed = server.getCommandManager().getDispatcher()
+                    .parse(command, server.getCommandSource().withLevel(4));
+                CommandSyntaxException error = CommandManager.getException(parsed);
+                if (error != null) {
+                    throw new IllegalArgumentException(error.getMessage());
+                }
+                yield new EventPlan.CommandStep(at, every, command, parsed);
+            }
+            case "particle" -> {
+                Identifier id = Identifier.of(require(step, "particle"));
+                ParticleType<?> particle = Registries.PARTICLE_TYPE.get(id);
+                if (!(particle instanceof SimpleParticleType simple)) {
+                    throw new IllegalArgumentException("unknown or parameterized particle " + id);
+                }
+                List<Number> offset = step.getOrElse("offset", List.of(0.5, 0.5, 0.5));
+                if (offset.size() != 3) {
+                    throw new IllegalArgumentException("offset needs 3 values");
+                }
+                yield new EventPlan.ParticleStep(at, every, simple, getInt(step, "count", 10),
+                    offset.get(0).doubleValue(), offset.get(1).doubleValue(), offset.get(2).doubleValue(),
+                    getDouble(step, "speed", 0.0));
+            }
+            case "sound" -> {
+                Identifier id = Identifier.of(require(step, "sound"));
+                SoundEvent sound = Registries.SOUND_EVENT.get(id);
+                if (sound == null) {
+                    sound = SoundEvent.of(id);
+                }
+                yield new EventPlan.SoundStep(at, every, sound,
+                    (float) getDouble(step, "volume", 1.0), (float) getDouble(step, "pitch", 1.0));
+            }
+            case "spawn" -> {
+                Identifier id = Identifier.of(require(step, "entity"));
+                if (!Registries.ENTITY_TYPE.containsId(id)) {
+                    throw new IllegalArgumentException("unknown entity " + id);
+                }
+                yield new EventPlan.SpawnStep(at, every, Registries.ENTITY_TYPE.get(id),
+                    getInt(step, "count", 1), getDouble(step, "radius", 3.0));
+            }
+            default -> throw new IllegalArgumentException("unknown step type '" + type + "'");
+        };
+    }
+
+    private static String require(Config config, String key) {
+        String value = config.get(key);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("missing " + key);
+        }
+        return value;
+    }
+
+    // TOML numbers come back as Integer, Long or Double depending on how they were written
+    private static int getInt(Config config, String key, int defaultValue) {
+        Number value = config.get(key);
+        return value == null ? defaultValue : value.intValue();
+    }
+
+    private static double getDouble(Config config, String key, double defaultValue) {
+        Number value = config.get(key);
+        return value == null ? defaultValue : value.doubleValue();
+    }
+
+    private static String fileStem(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? fileName : fileName.substring(0, dot);
+    }
+}
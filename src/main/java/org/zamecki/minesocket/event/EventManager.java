@@ -1,43 +1,139 @@
 package org.zamecki.minesocket.event;
 
 import net.minecraft.entity.boss.ServerBossBar;
+import net.minecraft.resource.ResourceManager;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayerEntity;
 import org.zamecki.minesocket.config.MineSocketConfiguration;
+import org.zamecki.minesocket.config.Settings;
+import org.zamecki.minesocket.services.Journal;
+import org.zamecki.minesocket.services.LoadShedder;
+import org.zamecki.minesocket.services.WorldSnapshot;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.zamecki.minesocket.ModData.logger;
 
 public class EventManager {
-    private final Map<String, IGameEvent> events = new HashMap<>();
-    private final List<IGameEvent> runningEvents = new ArrayList<>();
-    private final Map<IGameEvent, ServerBossBar> eventBossBars = new HashMap<>();
+    // How often the progress of running events is written to the journal
+    private static final int PROGRESS_INTERVAL = 20;
+    // Weight of the latest tick in the average tick cost of an event
+    private static final double AVERAGE_WEIGHT = 0.2;
+    // Ticks measured before the average is trusted, so a single slow first tick is not punished
+    private static final int WARMUP_TICKS = 5;
+    // Suspensions after which an event that is still too slow is stopped
+    private static final int MAX_SUSPENSIONS = 3;
+    private static final int MAX_OFFENDERS = 10;
+
+    /**
+     * An event the watchdog acted on, kept for /ms events
+     *
+     * @param action "suspended", "stopped" or "failed"
+     */
+    public record Offender(String name, String action, String reason, int tick) {
+    }
+
+    // Read from the preprocessing threads, replaced on the server thread when definitions reload
+    private final Map<String, IGameEvent> events = new ConcurrentHashMap<>();
+    private final Set<String> definedEvents = new HashSet<>();
+    private final List<RunningEvent> runningEvents = new ArrayList<>();
+    private final ArrayDeque<Offender> offenders = new ArrayDeque<>();
     private final MinecraftServer server;
     private final MineSocketConfiguration config;
+    private final Journal journal;
+    private final PlayerIndex playerIndex;
+    private final LoadShedder loadShedder;
 
-    public EventManager(MinecraftServer server, MineSocketConfiguration config) {
+    public EventManager(MinecraftServer server, MineSocketConfiguration config, Journal journal,
+                        LoadShedder loadShedder) {
         this.server = server;
         this.config = config;
+        this.journal = journal;
+        this.loadShedder = loadShedder;
+        this.playerIndex = new PlayerIndex(server);
         registerDefaultEvents();
     }
 
     private void registerDefaultEvents() {
-        registerEvent(new FireworkEvent(server));
+        registerEvent(new FireworkEvent(server, playerIndex, loadShedder));
     }
 
     public void registerEvent(IGameEvent event) {
         events.put(event.getName().toLowerCase(), event);
     }
 
-    public boolean handleEvent(String eventName, String[] args) {
+    /**
+     * Index shared by all events for resolving their {@link Target}, events registered from outside
+     * should use it instead of looping over the online players
+     */
+    public PlayerIndex getPlayerIndex() {
+        return playerIndex;
+    }
+
+    /**
+     * Compiles the declarative event definitions and replaces the ones loaded before
+     */
+    public void loadDefinitions(ResourceManager resourceManager) {
+        List<EventPlan> plans = new EventDefinitionLoader(server).load(resourceManager);
+
+        definedEvents.forEach(events::remove);
+        definedEvents.clear();
+        for (EventPlan plan : plans) {
+            String key = plan.name().toLowerCase();
+            if (events.containsKey(key)) {
+                logger.warn("Event definition '{}' conflicts with an existing event, skipping", plan.name());
+                continue;
+            }
+            registerEvent(new PlannedEvent(server, playerIndex, plan));
+            definedEvents.add(key);
+        }
+
+        if (!definedEvents.isEmpty()) {
+            logger.info("Loaded {} event definitions", definedEvents.size());
+        }
+    }
+
+    /**
+     * Decodes an event request into a new event instance, safe to call off the server thread
+     *
+     * @return the prepared event, or null if no event is registered under that name
+     * @throws IllegalArgumentException if the event rejects the arguments
+     */
+    public IGameEvent prepareEvent(String eventName, String[] args) {
         IGameEvent event = events.get(eventName.toLowerCase());
-        if (event == null) return false;
-        if (!event.start(args)) return false;
+        if (event == null) return null;
+        return event.prepare(args);
+    }
+
+    /**
+     * Starts a prepared event, must be called on the server thread
+     *
+     * @param journalId    id of the journaled message, marked as completed when the event ends
+     * @param elapsedTicks ticks already run before a restart, 0 for new events
+     */
+    public boolean startEvent(IGameEvent event, long journalId, int elapsedTicks) {
+        try {
+            if (!event.start()) return false;
+            if (elapsedTicks > 0) {
+                event.resume(elapsedTicks);
+            }
+        } catch (Exception e) {
+            logger.error("Event {} failed to start: ", event.getName(), e);
+            recordOffender(event, "failed", e.toString());
+            return false;
+        }
+
+        RunningEvent running = new RunningEvent(event, journalId, elapsedTicks);
 
         // Create boss bar when event starts if enabled in config
-        if (config.eventBossBar) {
+        if (config.settings().eventBossBar()) {
             ServerBossBar bossBar = new ServerBossBar(
                 event.getDisplayName(),
                 event.getBossBarColor(),
@@ -49,43 +145,170 @@ public class EventManager {
                 bossBar.addPlayer(player);
             }
 
-            // Store the boss bar
-            eventBossBars.put(event, bossBar);
+            running.bossBar = bossBar;
         }
 
         // Add the event to the running events list
-        runningEvents.add(event);
+        runningEvents.add(running);
         return true;
     }
 
     public void onServerTick() {
-        List<IGameEvent> completedEvents = new ArrayList<>();
-
-        for (IGameEvent event : runningEvents) {
-            // Update boss bar progress if boss bars are enabled
-            if (config.eventBossBar) {
-                ServerBossBar bossBar = eventBossBars.get(event);
-                if (bossBar != null) {
-                    bossBar.setPercent(event.getProgress());
+        Settings settings = config.settings();
+        // Boss bar updates are cosmetic, they are the first to slow down under load
+        boolean updateBossBars = server.getTicks() % loadShedder.getBossBarInterval() == 0;
+        Iterator<RunningEvent> iterator = runningEvents.iterator();
+        while (iterator.hasNext()) {
+            RunningEvent running = iterator.next();
+
+            // Suspended by the watchdog, the event neither runs nor advances
+            if (running.suspendedTicks > 0) {
+                if (--running.suspendedTicks == 0) {
+                    logger.info("Resuming event {}", running.event.getName());
                 }
+                continue;
             }
 
-            // Check if event has finished
-            if (event.tick()) {
-                completedEvents.add(event);
+            // One failing event must not take the others down with it
+            boolean finished;
+            long start = System.nanoTime();
+            try {
+                // Update boss bar progress if the event has one
+                if (running.bossBar != null && updateBossBars) {
+                    running.bossBar.setPercent(running.event.getProgress());
+                }
+
+                // Check if event has finished
+                running.elapsedTicks++;
+                finished = running.event.tick();
+            } catch (Exception e) {
+                logger.error("Event {} failed and was stopped: ", running.event.getName(), e);
+                iterator.remove();
+                finish(running);
+                recordOffender(running.event, "failed", e.toString());
+                continue;
+            }
+            running.account(System.nanoTime() - start);
+
+            if (finished) {
+                iterator.remove();
+                finish(running);
+            } else if (!watchdog(running, settings)) {
+                iterator.remove();
+                finish(running);
+            } else if (running.elapsedTicks % PROGRESS_INTERVAL == 0) {
+                journal.progress(running.journalId, running.elapsedTicks);
             }
         }
+    }
+
+    /**
+     * Suspends events whose average tick cost is over budget and stops those that keep being slow
+     * or used up their total budget
+     *
+     * @return false if the event has to be stopped
+     */
+    private boolean watchdog(RunningEvent running, Settings settings) {
+        long totalBudget = settings.eventTotalBudgetMillis() * 1_000_000L;
+        if (totalBudget > 0 && running.totalNanos > totalBudget) {
+            String reason = String.format("used %.1f ms in total, the budget is %d ms",
+                running.totalNanos / 1e6, settings.eventTotalBudgetMillis());
+            logger.warn("Stopping event {}: {}", running.event.getName(), reason);
+            recordOffender(running.event, "stopped", reason);
+            return false;
+        }
 
-        // Remove completed events and their boss bars
-        for (IGameEvent completedEvent : completedEvents) {
-            runningEvents.remove(completedEvent);
+        long tickBudget = settings.eventTickBudgetMicros() * 1_000L;
+        if (tickBudget <= 0 || running.samples < WARMUP_TICKS || running.averageNanos <= tickBudget) {
+            return true;
+        }
 
-            if (config.eventBossBar) {
-                ServerBossBar bossBar = eventBossBars.remove(completedEvent);
-                if (bossBar != null) {
-                    bossBar.clearPlayers();
-                }
-            }
+        String reason = String.format("averaged %.0f µs per tick, the budget is %d µs",
+            running.averageNanos / 1e3, settings.eventTickBudgetMicros());
+        if (++running.suspensions > MAX_SUSPENSIONS) {
+            logger.warn("Stopping event {}: {}", running.event.getName(), reason);
+            recordOffender(running.event, "stopped", reason);
+            return false;
+        }
+
+        logger.warn("Suspending event {} for {} ticks: {}", running.event.getName(),
+            settings.eventSuspendTicks(), reason);
+        recordOffender(running.event, "suspended", reason);
+        running.suspendedTicks = settings.eventSuspendTicks();
+        // Measure afresh once it resumes
+        running.samples = 0;
+        running.averageNanos = 0;
+        return true;
+    }
+
+    private void recordOffender(IGameEvent event, String action, String reason) {
+        if (offenders.size() >= MAX_OFFENDERS) {
+            offenders.removeFirst();
+        }
+        offenders.addLast(new Offender(event.getName(), action, reason, server.getTicks()));
+    }
+
+    public int getRunningEventCount() {
+        return runningEvents.size();
+    }
+
+    /**
+     * @return the latest events the watchdog acted on, oldest first
+     */
+    public List<Offender> getOffenders() {
+        return List.copyOf(offenders);
+    }
+
+    /**
+     * Copies the state of the running events for {@link WorldSnapshot}
+     */
+    public List<WorldSnapshot.EventSnapshot> snapshotEvents() {
+        List<WorldSnapshot.EventSnapshot> snapshot = new ArrayList<>(runningEvents.size());
+        for (RunningEvent running : runningEvents) {
+            snapshot.add(new WorldSnapshot.EventSnapshot(
+                running.event.getName(),
+                running.event.getDisplayName().getString(),
+                running.event.getProgress(),
+                running.elapsedTicks,
+                running.suspendedTicks > 0,
+                running.averageNanos / 1e3,
+                running.totalNanos / 1e6));
+        }
+        return List.copyOf(snapshot);
+    }
+
+    private void finish(RunningEvent running) {
+        // Always clean up, the boss bar setting may have changed while the event was running
+        if (running.bossBar != null) {
+            running.bossBar.clearPlayers();
+        }
+        journal.complete(running.journalId);
+    }
+
+    /**
+     * Bookkeeping for an event that is currently running
+     */
+    private static class RunningEvent {
+        private final IGameEvent event;
+        private final long journalId;
+        private int elapsedTicks;
+        private ServerBossBar bossBar;
+        // Tick cost, averaged over recent ticks and summed over the whole run
+        private double averageNanos;
+        private long totalNanos;
+        private int samples;
+        private int suspensions;
+        private int suspendedTicks;
+
+        private RunningEvent(IGameEvent event, long journalId, int elapsedTicks) {
+            this.event = event;
+            this.journalId = journalId;
+            this.elapsedTicks = elapsedTicks;
+        }
+
+        private void account(long nanos) {
+            totalNanos += nanos;
+            averageNanos = samples++ == 0 ? nanos : averageNanos + (nanos - averageNanos) * AVERAGE_WEIGHT;
         }
     }
 }
@@ -0,0 +1,99 @@
+package org.zamecki.minesocket.event;
+
+import com.mojang.brigadier.ParseResults;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityType;
+import net.minecraft.entity.SpawnReason;
+import net.minecraft.entity.boss.BossBar;
+import net.minecraft.particle.ParticleEffect;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.sound.SoundCategory;
+import net.minecraft.sound.SoundEvent;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.math.random.Random;
+
+/**
+ * A declarative event compiled into typed steps.
+ * Everything that needs parsing, from registry lookups to command parsing, happens once when the
+ * definition is loaded; running a step only touches the world.
+ *
+ * @param oneShots steps that run once, sorted by the tick they run at
+ * @param repeats  steps that run every {@link Step#every()} ticks
+ */
+public record EventPlan(String name, String displayName, int duration, BossBar.Color bossBarColor,
+                        Step[] oneShots, Step[] repeats) {
+
+    public sealed interface Step {
+        /**
+         * Tick relative to the event start the step first runs at
+         */
+        int at();
+
+        /**
+         * Interval between repetitions, 0 for one-shot steps
+         */
+        int every();
+
+        void run(MinecraftServer server, ServerPlayerEntity player, Random random);
+    }
+
+    /**
+     * Runs a pre-parsed command as and at the target player
+     */
+    public record CommandStep(int at, int every, String command, ParseResults<ServerCommandSource> parsed)
+        implements Step {
+        @Override
+        public void run(MinecraftServer server, ServerPlayerEntity player, Random random) {
+            ServerCommandSource source = server.getCommandSource()
+                .withLevel(4)
+                .withEntity(player)
+                .withPosition(new Vec3d(player.getX(), player.getY(), player.getZ()))
+                .withWorld((ServerWorld) player.getEntityWorld());
+            server.getCommandManager().execute(CommandManager.withCommandSource(parsed, ignored -> source), command);
+        }
+    }
+
+    public record ParticleStep(int at, int every, ParticleEffect particle, int count,
+                               double offsetX, double offsetY, double offsetZ, double speed) implements Step {
+        @Override
+        public void run(MinecraftServer server, ServerPlayerEntity player, Random random) {
+            ServerWorld world = (ServerWorld) player.getEntityWorld();
+            world.spawnParticles(particle, player.getX(), player.getY() + 1, player.getZ(),
+                count, offsetX, offsetY, offsetZ, speed);
+        }
+    }
+
+    public record SoundStep(int at, int every, SoundEvent sound, float volume, float pitch) implements Step {
+        @Override
+        public void run(MinecraftServer server, ServerPlayerEntity player, Random random) {
+            player.getEntityWorld().playSound(null, player.getX(), player.getY(), player.getZ(),
+                sound, SoundCategory.MASTER, volume, pitch);
+        }
+    }
+
+    public record SpawnStep(int at, int every, EntityType<?> entity, int count, double radius) implements Step {
+        @Override
+        public void run(MinecraftServer server, ServerPlayerEntity player, Random random) {
+            ServerWorld world = (ServerWorld) player.getEntityWorld();
+            for (int i = 0; i < count; i++) {
+                Entity spawned = entity.create(world, SpawnReason.COMMAND);
+                if (spawned == null) {
+                    return;
+                }
+
+                double angle = random.nextDouble() * 2 * Math.PI;
+                double distance = random.nextDouble() * radius;
+                spawned.refreshPositionAndAngles(
+                    player.getX() + distance * Math.cos(angle),
+                    player.getY(),
+                    player.getZ() + distance * Math.sin(angle),
+                    random.nextFloat() * 360f, 0f);
+                world.spawnEntity(spawned);
+            }
+        }
+    }
+}
@@ -15,6 +15,7 @@ import net.minecraft.util.math.Vec3d;
 import com.google.gson.JsonParser;
 import com.mojang.serialization.JsonOps;
 import net.minecraft.text.TextCodecs;
+import org.zamecki.minesocket.services.LoadShedder;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -24,17 +25,26 @@ import java.util.Random;
 import static org.zamecki.minesocket.ModData.MOD_ID;
 import static org.zamecki.minesocket.ModData.logger;
 
-/// FireworkEvent: Creates fireworks around a player in random positions.
+/// FireworkEvent: Creates fireworks around players in random positions.
 ///
 /// Usage via WebSocket:
-/// "event FireworkEvent \[playerName] \[duration] \[interval] \[radius]"
+/// "event FireworkEvent \[target] \[duration] \[interval] \[radius]"
 ///
+/// The target is a player name or an area, see {@link Target}.
 ///
 /// Examples:
 /// - "event FireworkEvent Player1"
 ///   Creates fireworks around the player
 ///
 ///
+/// - "event FireworkEvent @within:0,64,0,50 200 10"
+///   Creates fireworks around everyone within 50 blocks of 0 64 0
+///
+///
+/// - "event FireworkEvent @in:the_nether 200 10"
+///   Creates fireworks around every player in the nether
+///
+///
 /// - "event FireworkEvent Player1 60 5"
 ///   Creates fireworks every 5 ticks for 60 ticks
 ///
@@ -53,18 +63,35 @@ public class FireworkEvent implements IGameEvent {
     private static final double DEFAULT_RADIUS = 5.0;
 
     private final MinecraftServer server;
+    private final PlayerIndex playerIndex;
+    private final LoadShedder loadShedder;
     private final Random random = new Random();
 
+    // Decoded arguments, fixed once the event is prepared
+    private final Target target;
+    private final int initialDuration;
+    private final int spawnInterval;
+    private final double radius;
+    private final Text bossBarName;
+
     private int ticksRemaining;
-    private int initialDuration;
-    private int spawnInterval;
     private int ticksSinceLastSpawn;
-    private String playerName;
-    private double radius;
-    private Text bossBarName;
 
-    public FireworkEvent(MinecraftServer server) {
+    public FireworkEvent(MinecraftServer server, PlayerIndex playerIndex, LoadShedder loadShedder) {
+        this(server, playerIndex, loadShedder, null, DEFAULT_DURATION, DEFAULT_INTERVAL, DEFAULT_RADIUS, null);
+    }
+
+    private FireworkEvent(MinecraftServer server, PlayerIndex playerIndex, LoadShedder loadShedder, Target target,
+                          int duration, int interval, double radius, Text bossBarName) {
         this.server = server;
+        this.playerIndex = playerIndex;
+        this.loadShedder = loadShedder;
+        this.target = target;
+        this.initialDuration = duration;
+        this.ticksRemaining = duration;
+        this.spawnInterval = interval;
+        this.radius = radius;
+        this.bossBarName = bossBarName;
     }
 
     @Override
@@ -73,45 +100,46 @@ public class FireworkEvent implements IGameEvent {
     }
 
     @Override
-    public boolean start(String[] args) {
+    public IGameEvent prepare(String[] args) {
         if (args.length < 1) {
-            logger.error("FireworkEvent: Player name not provided");
-            return false;
+            throw new IllegalArgumentException("FireworkEvent: Target not provided");
         }
+        Target target = Target.parse(args[0]);
 
-        this.playerName = args[0];
-        this.initialDuration = getArg(args, 1, DEFAULT_DURATION, "duration", Integer::parseInt);
-        this.initialDuration = Math.max(1, this.initialDuration);
-        this.ticksRemaining = this.initialDuration;
-        this.spawnInterval = getArg(args, 2, DEFAULT_INTERVAL, "interval", Integer::parseInt);
-        this.radius = getArg(args, 3, DEFAULT_RADIUS, "radius", Double::parseDouble);
-        this.ticksSinceLastSpawn = 0;
-
-        ServerPlayerEntity player = findPlayer(this.playerName);
-        if (player == null)
-            return false;
-
-        this.bossBarName = null;
+        int duration = Math.max(1, getArg(args, 1, DEFAULT_DURATION, "duration", Integer::parseInt));
+        int interval = getArg(args, 2, DEFAULT_INTERVAL, "interval", Integer::parseInt);
+        double radius = getArg(args, 3, DEFAULT_RADIUS, "radius", Double::parseDouble);
 
+        Text bossBarName = null;
         if (args.length > 4) {
             String textArg = Arrays.stream(args).skip(4).reduce((a, b) -> a + " " + b).orElse("");
 
-            // Try to parse as Raw JSON text format
+            // Try to parse as Raw JSON text format, registries are frozen so this is safe off-thread
             try {
-                this.bossBarName = net.minecraft.text.TextCodecs.CODEC
-                        .parse(player.getRegistryManager().getOps(com.mojang.serialization.JsonOps.INSTANCE),
-                                com.google.gson.JsonParser.parseString(textArg))
+                bossBarName = TextCodecs.CODEC
+                        .parse(server.getRegistryManager().getOps(JsonOps.INSTANCE), JsonParser.parseString(textArg))
                         .result()
-                        .orElse(net.minecraft.text.Text.of(textArg));
+                        .orElse(Text.of(textArg));
             } catch (Exception e) {
                 // If not valid JSON, use as plain text
                 logger.warn("Failed to parse boss bar text as JSON, using as plain text: {}", textArg);
-                this.bossBarName = Text.of(textArg);
+                bossBarName = Text.of(textArg);
             }
         }
 
+        return new FireworkEvent(server, playerIndex, loadShedder, target, duration, interval, radius, bossBarName);
+    }
+
+    @Override
+    public boolean start() {
+        // Areas may be empty when the event starts, players can still walk into them
+        if (this.target instanceof Target.Player && playerIndex.find(this.target).isEmpty()) {
+            logger.error("FireworkEvent: Player '{}' not found", this.target);
+            return false;
+        }
+
         logger.info("FireworkEvent started for '{}' with duration of {} ticks and interval of {} ticks, radius {}",
-                this.playerName, this.ticksRemaining, this.spawnInterval, this.radius);
+                this.target, this.ticksRemaining, this.spawnInterval, this.radius);
 
         return true;
     }
@@ -126,11 +154,11 @@ public class FireworkEvent implements IGameEvent {
 
         this.ticksSinceLastSpawn++;
 
-        if (this.ticksSinceLastSpawn >= this.spawnInterval) {
+        // Spawn less often while the server is struggling, the event still ends on time
+        if (this.ticksSinceLastSpawn >= loadShedder.scaleInterval(this.spawnInterval)) {
             this.ticksSinceLastSpawn = 0;
 
-            ServerPlayerEntity player = findPlayer(this.playerName);
-            if (player != null) {
+            for (ServerPlayerEntity player : playerIndex.find(this.target)) {
                 spawnFirework(player);
             }
         }
@@ -138,6 +166,12 @@ public class FireworkEvent implements IGameEvent {
         return this.ticksRemaining <= 0;
     }
 
+    @Override
+    public void resume(int elapsedTicks) {
+        // Keep at least one tick so the event still completes normally
+        this.ticksRemaining = Math.max(1, this.initialDuration - elapsedTicks);
+    }
+
     @Override
     public Text getDisplayName() {
         if (this.bossBarName != null) {
@@ -147,7 +181,7 @@ public class FireworkEvent implements IGameEvent {
         return Text.translatableWithFallback(
                 "event." + MOD_ID + ".fireworks.display_name",
                 "Firework Event for player: %1$s",
-                this.playerName);
+                this.target.toString());
     }
 
     @Override
@@ -162,14 +196,6 @@ public class FireworkEvent implements IGameEvent {
         return BossBar.Color.RED;
     }
 
-    private ServerPlayerEntity findPlayer(String playerName) {
-        ServerPlayerEntity player = server.getPlayerManager().getPlayer(playerName);
-        if (player == null) {
-            logger.error("FireworkEvent: Player '{}' not found", playerName);
-        }
-        return player;
-    }
-
     private <T> T getArg(String[] args, int index, T defaultValue, String paramName,
             java.util.function.Function<String, T> converter) {
         if (args.length <= index)
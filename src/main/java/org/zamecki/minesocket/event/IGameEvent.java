@@ -7,10 +7,33 @@ import net.minecraft.text.Text;
 public interface IGameEvent {
     String getName();
 
-    boolean start(String[] args);
+    /**
+     * Decodes the arguments into a new, not yet started instance of this event.
+     * Called off the server thread, so it must not touch world state.
+     * By convention the first argument is the {@link Target}, resolved each tick through
+     * {@link EventManager#getPlayerIndex()}.
+     *
+     * @throws IllegalArgumentException if the arguments are invalid
+     */
+    IGameEvent prepare(String[] args);
+
+    /**
+     * Starts a prepared event on the server thread
+     *
+     * @return false if the event cannot run right now
+     */
+    boolean start();
 
     boolean tick();
 
+    /**
+     * Restores the progress of an event replayed from the journal, called right after {@link #start()}
+     *
+     * @param elapsedTicks ticks the event had already run for before the server stopped
+     */
+    default void resume(int elapsedTicks) {
+    }
+
     Text getDisplayName();
     
     float getProgress();
@@ -0,0 +1,122 @@
+package org.zamecki.minesocket.event;
+
+import net.minecraft.entity.boss.BossBar;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.text.Text;
+import net.minecraft.util.math.random.Random;
+
+import java.util.List;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/// PlannedEvent: Runs a declarative {@link EventPlan} around players.
+///
+/// Usage via WebSocket:
+/// "event \[name] \[target]"
+///
+/// The target is a player name or an area, see {@link Target}. Every step runs once for each targeted player.
+///
+/// Definitions are TOML files in config/minesocket/events or data/<namespace>/minesocket_events
+/// in a datapack, see {@link EventDefinitionLoader} for the format.
+public class PlannedEvent implements IGameEvent {
+    private final MinecraftServer server;
+    private final PlayerIndex playerIndex;
+    private final EventPlan plan;
+    private final Random random = Random.create();
+
+    private final Target target;
+    private final Text displayName;
+
+    private int elapsedTicks;
+    private int nextOneShot;
+
+    public PlannedEvent(MinecraftServer server, PlayerIndex playerIndex, EventPlan plan) {
+        this(server, playerIndex, plan, null, Text.of(plan.name()));
+    }
+
+    private PlannedEvent(MinecraftServer server, PlayerIndex playerIndex, EventPlan plan, Target target,
+                         Text displayName) {
+        this.server = server;
+        this.playerIndex = playerIndex;
+        this.plan = plan;
+        this.target = target;
+        this.displayName = displayName;
+    }
+
+    @Override
+    public String getName() {
+        return plan.name();
+    }
+
+    @Override
+    public IGameEvent prepare(String[] args) {
+        if (args.length < 1) {
+            throw new IllegalArgumentException(plan.name() + ": Target not provided");
+        }
+        Target target = Target.parse(args[0]);
+
+        // Formatted once here, never per tick
+        String name = plan.displayName().replace("{player}", args[0]);
+        return new PlannedEvent(server, playerIndex, plan, target, Text.of(name));
+    }
+
+    @Override
+    public boolean start() {
+        // Areas may be empty when the event starts, players can still walk into them
+        if (target instanceof Target.Player && playerIndex.find(target).isEmpty()) {
+            logger.error("{}: Player '{}' not found", plan.name(), target);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean tick() {
+        int tick = elapsedTicks++;
+        List<ServerPlayerEntity> players = playerIndex.find(target);
+
+        EventPlan.Step[] oneShots = plan.oneShots();
+        while (nextOneShot < oneShots.length && oneShots[nextOneShot].at() <= tick) {
+            EventPlan.Step step = oneShots[nextOneShot++];
+            for (ServerPlayerEntity player : players) {
+                step.run(server, player, random);
+            }
+        }
+
+        for (EventPlan.Step step : plan.repeats()) {
+            if (tick >= step.at() && (tick - step.at()) % step.every() == 0) {
+                for (ServerPlayerEntity player : players) {
+                    step.run(server, player, random);
+                }
+            }
+        }
+
+        return elapsedTicks >= plan.duration();
+    }
+
+    @Override
+    public void resume(int elapsedTicks) {
+        // Skip the one-shot steps that already ran before the restart
+        this.elapsedTicks = elapsedTicks;
+        EventPlan.Step[] oneShots = plan.oneShots();
+        while (nextOneShot < oneShots.length && oneShots[nextOneShot].at() < elapsedTicks) {
+            nextOneShot++;
+        }
+    }
+
+    @Override
+    public Text getDisplayName() {
+        return displayName;
+    }
+
+    @Override
+    public float getProgress() {
+        return 1f - (float) elapsedTicks / plan.duration();
+    }
+
+    @Override
+    public BossBar.Color getBossBarColor() {
+        return plan.bossBarColor();
+    }
+}
@@ -0,0 +1,113 @@
+package org.zamecki.minesocket.event;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Players bucketed by dimension and chunk, rebuilt at most once per tick and shared by every running event.
+ * An area lookup only visits the chunks the area overlaps, instead of every online player, so many
+ * area events with many players stay cheap. Server thread only.
+ */
+public class PlayerIndex {
+    private final MinecraftServer server;
+    private final Map<String, List<ServerPlayerEntity>> byDimension = new HashMap<>();
+    private final Map<String, Long2ObjectOpenHashMap<List<ServerPlayerEntity>>> byChunk = new HashMap<>();
+    private int builtTick = -1;
+
+    public PlayerIndex(MinecraftServer server) {
+        this.server = server;
+    }
+
+    /**
+     * @return the online players matching the target, empty if there are none
+     */
+    public List<ServerPlayerEntity> find(Target target) {
+        return switch (target) {
+            case Target.Player(String name) -> {
+                ServerPlayerEntity player = server.getPlayerManager().getPlayer(name);
+                yield player == null ? List.of() : List.of(player);
+            }
+            case Target.All() -> server.getPlayerManager().getPlayerList();
+            case Target.Dimension(String dimension) -> {
+                refresh();
+                yield byDimension.getOrDefault(dimension, List.of());
+            }
+            case Target.Within(String dimension, double x, double y, double z, double radius) -> {
+                refresh();
+                yield within(dimension, x, y, z, radius);
+            }
+        };
+    }
+
+    private List<ServerPlayerEntity> within(String dimension, double x, double y, double z, double radius) {
+        Long2ObjectOpenHashMap<List<ServerPlayerEntity>> chunks = byChunk.get(dimension);
+        if (chunks == null) {
+            return List.of();
+        }
+
+        int minX = ((int) Math.floor(x - radius)) >> 4;
+        int maxX = ((int) Math.floor(x + radius)) >> 4;
+        int minZ = ((int) Math.floor(z - radius)) >> 4;
+        int maxZ = ((int) Math.floor(z + radius)) >> 4;
+        double radiusSquared = radius * radius;
+
+        List<ServerPlayerEntity> result = new ArrayList<>();
+        // An area spanning more chunks than are occupied is cheaper to answer from the occupied ones
+        if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) > chunks.size()) {
+            for (List<ServerPlayerEntity> bucket : chunks.values()) {
+                collect(bucket, x, y, z, radiusSquared, result);
+            }
+            return result;
+        }
+
+        for (int chunkX = minX; chunkX <= maxX; chunkX++) {
+            for (int chunkZ = minZ; chunkZ <= maxZ; chunkZ++) {
+                List<ServerPlayerEntity> bucket = chunks.get(ChunkPos.toLong(chunkX, chunkZ));
+                if (bucket != null) {
+                    collect(bucket, x, y, z, radiusSquared, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void collect(List<ServerPlayerEntity> bucket, double x, double y, double z, double radiusSquared,
+                                List<ServerPlayerEntity> result) {
+        for (ServerPlayerEntity player : bucket) {
+            if (player.squaredDistanceTo(x, y, z) <= radiusSquared) {
+                result.add(player);
+            }
+        }
+    }
+
+    private void refresh() {
+        int tick = server.getTicks();
+        if (tick == builtTick) {
+            return;
+        }
+        builtTick = tick;
+
+        byDimension.clear();
+        byChunk.clear();
+        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+            String dimension = player.getEntityWorld().getRegistryKey().getValue().toString();
+            byDimension.computeIfAbsent(dimension, key -> new ArrayList<>()).add(player);
+            long chunk = ChunkPos.toLong(((int) Math.floor(player.getX())) >> 4, ((int) Math.floor(player.getZ())) >> 4);
+            Long2ObjectOpenHashMap<List<ServerPlayerEntity>> chunks =
+                byChunk.computeIfAbsent(dimension, key -> new Long2ObjectOpenHashMap<>());
+            List<ServerPlayerEntity> bucket = chunks.get(chunk);
+            if (bucket == null) {
+                bucket = new ArrayList<>(2);
+                chunks.put(chunk, bucket);
+            }
+            bucket.add(player);
+        }
+    }
+}
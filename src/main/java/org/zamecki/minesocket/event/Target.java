@@ -0,0 +1,86 @@
+package org.zamecki.minesocket.event;
+
+import java.util.Locale;
+
+/**
+ * Players an event applies to, parsed from the first event argument.
+ *
+ * <ul>
+ *     <li>"Player1" - one player by name</li>
+ *     <li>"@all" - every online player</li>
+ *     <li>"@in:the_nether" - every player in a dimension, the namespace defaults to minecraft</li>
+ *     <li>"@within:0,64,0,50" - every player within 50 blocks of 0 64 0 in the overworld</li>
+ *     <li>"@within:0,64,0,50,the_end" - the same in another dimension</li>
+ * </ul>
+ *
+ * Area targets are resolved through {@link PlayerIndex}, which is shared by all running events.
+ */
+public sealed interface Target {
+    String OVERWORLD = "minecraft:overworld";
+
+    record Player(String name) implements Target {
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    record All() implements Target {
+        @Override
+        public String toString() {
+            return "@all";
+        }
+    }
+
+    record Dimension(String dimension) implements Target {
+        @Override
+        public String toString() {
+            return "@in:" + dimension;
+        }
+    }
+
+    record Within(String dimension, double x, double y, double z, double radius) implements Target {
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "@within:%s,%s,%s,%s,%s", x, y, z, radius, dimension);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the target cannot be parsed
+     */
+    static Target parse(String value) {
+        if (!value.startsWith("@")) {
+            return new Player(value);
+        }
+
+        String lower = value.toLowerCase(Locale.ROOT);
+        if (lower.equals("@all")) {
+            return new All();
+        }
+        if (lower.startsWith("@in:") && lower.length() > 4) {
+            return new Dimension(dimension(lower.substring(4)));
+        }
+        if (lower.startsWith("@within:")) {
+            String[] parts = lower.substring(8).split(",");
+            if (parts.length != 4 && parts.length != 5) {
+                throw new IllegalArgumentException("Expected @within:x,y,z,radius[,dimension], got '" + value + "'");
+            }
+            try {
+                double radius = Double.parseDouble(parts[3]);
+                if (!(radius > 0)) {
+                    throw new IllegalArgumentException("Radius must be positive in '" + value + "'");
+                }
+                return new Within(parts.length == 5 ? dimension(parts[4]) : OVERWORLD,
+                    Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), radius);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid coordinates in '" + value + "'");
+            }
+        }
+        throw new IllegalArgumentException("Unknown target '" + value + "'");
+    }
+
+    private static String dimension(String name) {
+        return name.contains(":") ? name : "minecraft:" + name;
+    }
+}
@@ -0,0 +1,55 @@
+package org.zamecki.minesocket.gateway;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * Standalone gateway, runs without Minecraft and exposes several MineSocket servers behind one endpoint.
+ * Build it with "./gradlew gatewayJar" and run "java -jar MineSocket_*-gateway.jar [config file]",
+ * or start it from the sources with "./gradlew runGateway".
+ */
+public class Gateway {
+    public static void main(String[] args) throws InterruptedException {
+        GatewayConfiguration config = args.length > 0
+            ? new GatewayConfiguration(Path.of(args[0]))
+            : new GatewayConfiguration();
+        if (config.backends.isEmpty()) {
+            logger.warn("No backends configured, add them to the [backends] table of {}", config.getPath());
+        }
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MineSocket-Gateway");
+            thread.setDaemon(true);
+            return thread;
+        });
+        GatewayRouter router = new GatewayRouter(config, scheduler);
+        GatewayServer server = new GatewayServer(new InetSocketAddress(config.host, config.port), router);
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.stop(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            router.close();
+            stopped.countDown();
+        }, "MineSocket-Gateway-Shutdown"));
+
+        server.start();
+        server.getStarted().thenAccept(started -> {
+            if (!started) {
+                logger.error("Gateway failed to start, stopping");
+                System.exit(1);
+            }
+            logger.info("Gateway routing to {}", config.backends.keySet());
+        });
+
+        stopped.await();
+    }
+}
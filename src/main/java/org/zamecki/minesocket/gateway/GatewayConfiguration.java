@@ -0,0 +1,60 @@
+package org.zamecki.minesocket.gateway;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import org.zamecki.minesocket.config.Config;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.zamecki.minesocket.ModData.MOD_ID;
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * Configuration of the standalone gateway, separate from the mod's so it only holds what the gateway uses
+ */
+public class GatewayConfiguration extends Config {
+    public String host;
+    public int port;
+    public Map<String, URI> backends;
+    public String defaultBackend;
+    public int upstreamConnections;
+    public int reconnectDelayMillis;
+
+    public GatewayConfiguration(Path path) {
+        super(path);
+    }
+
+    public GatewayConfiguration() {
+        this(Path.of("config", MOD_ID + "-gateway.toml"));
+    }
+
+    @Override
+    public void load() {
+        host = this.getOrAdd("host", "localhost", "The host to listen on");
+        // 0 picks a free port, mostly useful for tests
+        port = this.getOrAdd("port", 8886, "The port to listen on", port -> port >= 0 && port < 65536);
+        backends = loadBackends(this.getOrAdd("backends", this.createSubConfig(),
+            "MineSocket servers to route to, e.g. lobby = \"ws://127.0.0.1:8887/gateway\""));
+        defaultBackend = this.getOrAdd("default_backend", "",
+            "Backend for messages without an @server prefix, empty to reject them");
+        upstreamConnections = this.getOrAdd("upstream_connections", 2,
+            "Persistent connections kept open to each backend", connections -> connections > 0);
+        reconnectDelayMillis = this.getOrAdd("reconnect_delay_millis", 3000,
+            "Milliseconds to wait before reconnecting to a backend that dropped", delay -> delay >= 0);
+    }
+
+    private static Map<String, URI> loadBackends(CommentedConfig table) {
+        Map<String, URI> backends = new LinkedHashMap<>();
+        for (UnmodifiableConfig.Entry entry : table.entrySet()) {
+            try {
+                backends.put(entry.getKey(), URI.create(entry.getValue().toString()));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Invalid address for backend {}: {}", entry.getKey(), entry.getValue());
+            }
+        }
+        return backends;
+    }
+}
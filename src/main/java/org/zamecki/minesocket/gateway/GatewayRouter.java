@@ -0,0 +1,229 @@
+package org.zamecki.minesocket.gateway;
+
+import com.google.gson.JsonObject;
+import org.zamecki.minesocket.services.Client;
+import org.zamecki.minesocket.services.MessageHandler;
+import org.zamecki.minesocket.services.TaggedClient;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * Routes client messages to backend MineSocket servers and the replies back.
+ *
+ * <p>Messages are prefixed with the backend they are meant for, "@lobby query players", or
+ * "@* command say hi" for every backend. Messages without a prefix go to the default backend.
+ * Each forwarded message gets a gateway tag, so the pooled upstream connections can be shared;
+ * frames coming back are matched by that tag and delivered with a "server" field naming the
+ * backend. Stream subscriptions keep their tag for as long as the client stays subscribed, and are
+ * made again when the backend connection they live on reconnects.
+ */
+public class GatewayRouter implements MessageHandler {
+    // One-shot routes are forgotten after this long, replies arriving later are dropped
+    private static final long ROUTE_TTL_MILLIS = 60_000;
+
+    /**
+     * Where frames carrying a gateway tag go
+     *
+     * @param clientTag tag the client sent itself, echoed back in place of the gateway tag
+     */
+    private record Route(Client client, String clientTag, String backend, boolean persistent, long expiresAt) {
+    }
+
+    private final GatewayConfiguration config;
+    private final Map<String, UpstreamPool> pools = new LinkedHashMap<>();
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    // Stream subscriptions by client, backend and topic, so unsubscribe and ack reuse the tag
+    private final Map<String, String> subscriptionTags = new ConcurrentHashMap<>();
+    private final AtomicLong nextTag = new AtomicLong();
+
+    public GatewayRouter(GatewayConfiguration config, ScheduledExecutorService scheduler) {
+        this.config = config;
+        for (Map.Entry<String, URI> backend : config.backends.entrySet()) {
+            pools.put(backend.getKey(), new UpstreamPool(backend.getKey(), backend.getValue(),
+                config.upstreamConnections, config.reconnectDelayMillis, this::onUpstreamFrame, scheduler));
+        }
+        scheduler.scheduleAtFixedRate(this::expireRoutes, 10, 10, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void handleMessage(Client client, String message) {
+        String clientTag = null;
+        if (message.startsWith("#")) {
+            int space = message.indexOf(' ');
+            if (space < 0) {
+                client.send(error(null, "Invalid tag"));
+                return;
+            }
+            clientTag = message.substring(1, space);
+            message = message.substring(space + 1);
+        }
+
+        String backend = config.defaultBackend;
+        if (message.startsWith("@")) {
+            int space = message.indexOf(' ');
+            if (space < 0) {
+                client.send(error(clientTag, "No message after the server prefix"));
+                return;
+            }
+            backend = message.substring(1, space);
+            message = message.substring(space + 1);
+        }
+
+        if (backend.equals("*")) {
+            for (String name : pools.keySet()) {
+                forward(client, clientTag, name, message);
+            }
+        } else if (backend.isEmpty()) {
+            client.send(error(clientTag, "No server given, prefix the message with @server"));
+        } else if (!pools.containsKey(backend)) {
+            client.send(error(clientTag, "Unknown server: '" + backend + "'"));
+        } else {
+            forward(client, clientTag, backend, message);
+        }
+    }
+
+    private void forward(Client client, String clientTag, String backend, String message) {
+        String[] words = message.split(" ", 3);
+        String verb = words[0].toLowerCase();
+        boolean streamVerb = verb.equals("subscribe") || verb.equals("unsubscribe") || verb.equals("ack");
+
+        UpstreamPool pool = pools.get(backend);
+        String tag;
+        boolean sent;
+        if (streamVerb && words.length > 1) {
+            // Keep one tag per subscription so the backend sees the same subscriber every time
+            String key = client.getId() + '|' + backend + '|' + words[1].toLowerCase();
+            tag = verb.equals("unsubscribe") ? subscriptionTags.remove(key) : subscriptionTags.get(key);
+            if (tag == null) {
+                tag = newTag();
+                if (verb.equals("subscribe")) {
+                    subscriptionTags.put(key, tag);
+                }
+            }
+            String tagged = "#" + tag + " " + message;
+            switch (verb) {
+                case "subscribe" -> {
+                    routes.put(tag, new Route(client, clientTag, backend, true, Long.MAX_VALUE));
+                    sent = pool.subscribe(tag, tagged);
+                }
+                case "unsubscribe" -> {
+                    routes.remove(tag);
+                    pool.unsubscribe(tag, tagged);
+                    sent = true;
+                }
+                default -> {
+                    // An ack that cannot be delivered only means the next frame is not a delta against it
+                    pool.sendPinned(tag, tagged);
+                    sent = true;
+                }
+            }
+            if (!sent) {
+                subscriptionTags.values().remove(tag);
+            }
+        } else {
+            tag = newTag();
+            routes.put(tag, new Route(client, clientTag, backend, false,
+                System.currentTimeMillis() + ROUTE_TTL_MILLIS));
+            sent = pool.send("#" + tag + " " + message);
+        }
+
+        if (!sent) {
+            routes.remove(tag);
+            client.send(withServer(backend, clientTag, error(null, "Server '" + backend + "' is not connected")));
+        }
+    }
+
+    /**
+     * Called from the upstream connection threads for every frame a backend sends
+     */
+    private void onUpstreamFrame(String backend, String frame) {
+        // Tagged replies start with {"tag":"...", see TaggedClient
+        String prefix = "{\"tag\":\"";
+        int end = frame.startsWith(prefix) ? frame.indexOf('"', prefix.length()) : -1;
+        if (end < 0) {
+            // Everything the gateway sends is tagged, so this is the backend speaking on its own
+            if (frame.contains("\"type\":\"error\"")) {
+                logger.warn("Backend {} sent an error outside of any request: {}", backend, frame);
+            } else {
+                logger.debug("Dropping untagged frame from backend {}: {}", backend, frame);
+            }
+            return;
+        }
+
+        String tag = frame.substring(prefix.length(), end);
+        Route route = routes.get(tag);
+        if (route == null || !route.client().isOpen()) {
+            logger.debug("No client for frame {} from backend {}, its route expired or it disconnected", tag,
+                backend);
+            return;
+        }
+
+        String rest = frame.substring(end + 1);
+        if (rest.startsWith(",")) {
+            rest = rest.substring(1);
+        }
+        route.client().send(withServer(backend, route.clientTag(), "{" + rest));
+    }
+
+    /**
+     * Adds the backend name, and the client's own tag if it sent one, in front of a frame
+     */
+    private static String withServer(String backend, String clientTag, String frame) {
+        String rest = frame.substring(1);
+        String separator = rest.startsWith("}") ? "" : ",";
+        String server = "\"server\":\"" + backend + "\"";
+        if (clientTag != null && TaggedClient.isValidTag(clientTag)) {
+            server = "\"tag\":\"" + clientTag + "\"," + server;
+        }
+        return "{" + server + separator + rest;
+    }
+
+    @Override
+    public void disconnected(Client client) {
+        // Unsubscribe upstream on behalf of the client, then forget its routes
+        String prefix = client.getId() + '|';
+        subscriptionTags.entrySet().removeIf(entry -> {
+            if (!entry.getKey().startsWith(prefix)) {
+                return false;
+            }
+            String[] key = entry.getKey().split("\\|", 3);
+            UpstreamPool pool = pools.get(key[1]);
+            if (pool != null) {
+                pool.unsubscribe(entry.getValue(), "#" + entry.getValue() + " unsubscribe " + key[2]);
+            }
+            return true;
+        });
+        routes.values().removeIf(route -> route.client().equals(client));
+    }
+
+    public void close() {
+        pools.values().forEach(UpstreamPool::close);
+    }
+
+    private void expireRoutes() {
+        long now = System.currentTimeMillis();
+        routes.values().removeIf(route -> !route.persistent() && route.expiresAt() < now);
+    }
+
+    private String newTag() {
+        return "gw" + Long.toString(nextTag.incrementAndGet(), 36);
+    }
+
+    private static String error(String clientTag, String message) {
+        JsonObject json = new JsonObject();
+        if (clientTag != null && TaggedClient.isValidTag(clientTag)) {
+            json.addProperty("tag", clientTag);
+        }
+        json.addProperty("type", "error");
+        json.addProperty("message", message);
+        return json.toString();
+    }
+}
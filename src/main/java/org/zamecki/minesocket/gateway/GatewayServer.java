@@ -0,0 +1,38 @@
+package org.zamecki.minesocket.gateway;
+
+import org.zamecki.minesocket.services.ClientSocketServer;
+import org.zamecki.minesocket.services.MessageHandler;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * WebSocket listener the gateway's clients connect to.
+ * The client handling is shared with the mod's WebSocketService, only the lifecycle differs: the gateway binds
+ * once and has no configuration to reload or check clients against.
+ */
+public class GatewayServer extends ClientSocketServer {
+    // Completed with true once listening, or false if the address could not be bound
+    private final CompletableFuture<Boolean> started = new CompletableFuture<>();
+
+    public GatewayServer(InetSocketAddress address, MessageHandler messageHandler) {
+        super(address, messageHandler, "Gateway");
+    }
+
+    public CompletableFuture<Boolean> getStarted() {
+        return started;
+    }
+
+    @Override
+    protected void onBound() {
+        logger.info("Gateway listening on {}:{}", getAddress().getHostString(), getPort());
+        started.complete(true);
+    }
+
+    @Override
+    protected void onBindFailed(Exception cause) {
+        started.complete(false);
+    }
+}
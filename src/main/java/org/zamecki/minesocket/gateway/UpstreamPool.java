@@ -0,0 +1,200 @@
+package org.zamecki.minesocket.gateway;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * Persistent connections to one backend MineSocket server, reconnected whenever they drop.
+ *
+ * <p>One-shot messages go over whichever connection is open. A subscription lives on the backend
+ * connection it was made over, so it is pinned to that connection: its ack and unsubscribe follow it
+ * there, and it is made again when that connection reconnects, since the backend dropped it.
+ */
+public class UpstreamPool {
+    private final String backend;
+    private final URI uri;
+    private final int reconnectDelayMillis;
+    private final BiConsumer<String, String> onFrame;
+    private final ScheduledExecutorService scheduler;
+    private final List<Upstream> connections = new ArrayList<>();
+    private final Map<String, Upstream> pinned = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param onFrame receives the backend name and every frame sent by the backend
+     */
+    public UpstreamPool(String backend, URI uri, int size, int reconnectDelayMillis,
+                        BiConsumer<String, String> onFrame, ScheduledExecutorService scheduler) {
+        this.backend = backend;
+        this.uri = uri;
+        this.reconnectDelayMillis = reconnectDelayMillis;
+        this.onFrame = onFrame;
+        this.scheduler = scheduler;
+        for (int i = 0; i < size; i++) {
+            Upstream upstream = new Upstream();
+            connections.add(upstream);
+            upstream.connect();
+        }
+    }
+
+    /**
+     * Sends a message over the next open connection
+     *
+     * @return false if no connection to the backend is open
+     */
+    public boolean send(String message) {
+        Upstream upstream = nextOpen();
+        if (upstream == null) {
+            return false;
+        }
+        upstream.send(message);
+        return true;
+    }
+
+    /**
+     * Makes a subscription over the next open connection, or over the one it already lives on
+     *
+     * @param message the subscribe message, tagged with tag
+     * @return false if no connection to the backend is open
+     */
+    public boolean subscribe(String tag, String message) {
+        Upstream upstream = pinned.get(tag);
+        if (upstream == null || !upstream.isOpen()) {
+            upstream = nextOpen();
+        }
+        if (upstream == null) {
+            return false;
+        }
+
+        Upstream previous = pinned.put(tag, upstream);
+        if (previous != null && previous != upstream) {
+            previous.subscriptions.remove(tag);
+        }
+        upstream.subscriptions.put(tag, message);
+        upstream.send(message);
+        return true;
+    }
+
+    /**
+     * Sends a message about a subscription, e.g. an ack, over the connection the subscription lives on
+     *
+     * @return false if the subscription is unknown or its connection is down, it is made again on reconnect
+     */
+    public boolean sendPinned(String tag, String message) {
+        Upstream upstream = pinned.get(tag);
+        if (upstream == null || !upstream.isOpen()) {
+            return false;
+        }
+        upstream.send(message);
+        return true;
+    }
+
+    /**
+     * Ends a subscription, it is not made again on reconnect
+     *
+     * @param message the unsubscribe message, tagged with tag
+     */
+    public void unsubscribe(String tag, String message) {
+        Upstream upstream = pinned.remove(tag);
+        if (upstream == null) {
+            return;
+        }
+        upstream.subscriptions.remove(tag);
+        if (upstream.isOpen()) {
+            upstream.send(message);
+        }
+    }
+
+    public void close() {
+        closed = true;
+        for (Upstream upstream : connections) {
+            upstream.close();
+        }
+    }
+
+    private Upstream nextOpen() {
+        int size = connections.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Upstream upstream = connections.get((start + i) % size);
+            if (upstream.isOpen()) {
+                return upstream;
+            }
+        }
+        return null;
+    }
+
+    private void reconnectLater(Upstream upstream) {
+        if (closed) {
+            return;
+        }
+        scheduler.schedule(() -> {
+            if (!closed) {
+                upstream.reconnect();
+            }
+        }, reconnectDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private class Upstream extends WebSocketClient {
+        // Subscribe messages by tag, in the order they were made
+        private final Map<String, String> subscriptions = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        private Upstream() {
+            super(uri);
+            setConnectionLostTimeout(30);
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+            logger.info("Connected to backend {} at {}", backend, uri);
+            List<String> resubscribe;
+            synchronized (subscriptions) {
+                resubscribe = new ArrayList<>(subscriptions.values());
+            }
+            if (!resubscribe.isEmpty()) {
+                logger.info("Subscribing again to {} streams on backend {}", resubscribe.size(), backend);
+            }
+            for (String message : resubscribe) {
+                send(message);
+            }
+        }
+
+        @Override
+        public void onMessage(String message) {
+            // Every backend connection gets its own session, the gateway reconnects instead of resuming it
+            if (message.startsWith("{\"type\":\"session\"")) {
+                logger.debug("Backend {} opened session: {}", backend, message);
+                return;
+            }
+            onFrame.accept(backend, message);
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            if (!closed) {
+                logger.warn("Lost connection to backend {}: code={}, reason={}", backend, code, reason);
+                reconnectLater(this);
+            }
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            logger.debug("Backend {} connection error: {}", backend, ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.zamecki.minesocket.services;
+
+import org.zamecki.minesocket.config.MineSocketConfiguration;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * Audit channel for the message path.
+ * Producers only enqueue into a bounded ring buffer; formatting, sampling, aggregation
+ * and writing the optional audit file all happen on a single background thread.
+ * The log may drop entries when the ring is full, the audit file may not: while it is enabled every
+ * entry also goes to an unbounded queue that only the file is written from.
+ */
+public class AuditLog {
+    private static final int CAPACITY = 8192;
+    private static final int BATCH_SIZE = 1024;
+    private static final Path AUDIT_FILE = Path.of("logs", "minesocket-audit.log");
+
+    private enum Kind {
+        OPEN, CLOSE, MESSAGE
+    }
+
+    // The client is kept as an object so its toString only runs on the audit thread,
+    // message is the close reason for CLOSE entries and code is only set on those
+    private record Entry(long time, Kind kind, Object client, int code, String message) {
+        // Escaped so a client cannot start a line of its own in the log or the audit file
+        String detail() {
+            return escape(kind == Kind.CLOSE ? "code=" + code + ", reason=" + message : message);
+        }
+    }
+
+    private final MineSocketConfiguration config;
+    private final Path file;
+    private final BlockingQueue<Entry> ring = new ArrayBlockingQueue<>(CAPACITY);
+    private final Queue<Entry> fileQueue = new ConcurrentLinkedQueue<>();
+    private final LongAdder dropped = new LongAdder();
+
+    // Only touched by the audit thread
+    private final Set<Object> windowClients = new HashSet<>();
+    private long windowMessages;
+    private long windowStart = System.currentTimeMillis();
+    private long sampleCounter;
+    private BufferedWriter fileWriter;
+
+    public AuditLog(MineSocketConfiguration config) {
+        this(config, AUDIT_FILE);
+    }
+
+    AuditLog(MineSocketConfiguration config, Path file) {
+        this.config = config;
+        this.file = file;
+        Thread worker = new Thread(this::run, "MineSocket-Audit");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void opened(Object client) {
+        offer(new Entry(System.currentTimeMillis(), Kind.OPEN, client, 0, null));
+    }
+
+    public void closed(Object client, int code, String reason) {
+        offer(new Entry(System.currentTimeMillis(), Kind.CLOSE, client, code, reason));
+    }
+
+    public void received(Object client, String message) {
+        offer(new Entry(System.currentTimeMillis(), Kind.MESSAGE, client, 0, message));
+    }
+
+    private void offer(Entry entry) {
+        if (config.settings().auditFile()) {
+            fileQueue.add(entry);
+        }
+        // Never block the caller, count what could not be logged instead
+        if (!ring.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Entry first = ring.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    ring.drainTo(batch, BATCH_SIZE - 1);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                ring.drainTo(batch);
+            }
+
+            process(batch);
+            batch.clear();
+            // The file is flushed after every batch, so nothing is lost if the JVM exits
+            writeFile();
+            reportWindow();
+        }
+        closeFile();
+    }
+
+    private void process(List<Entry> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        int sampleRate = config.settings().auditSampleRate();
+        for (Entry entry : batch) {
+            switch (entry.kind()) {
+                case OPEN -> logger.info("New connection from {}", entry.client());
+                case CLOSE -> logger.info("Closed connection to {}: {}", entry.client(), entry.detail());
+                case MESSAGE -> {
+                    windowMessages++;
+                    windowClients.add(entry.client());
+                    if (sampleRate > 0 && sampleCounter++ % sampleRate == 0) {
+                        logger.info("Received message from {}: {}", entry.client(), entry.detail());
+                    }
+                }
+            }
+        }
+    }
+
+    private void reportWindow() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - windowStart;
+        if (elapsed < config.settings().auditInterval() * 1000L) {
+            return;
+        }
+
+        long lost = dropped.sumThenReset();
+        if (windowMessages > 0 || lost > 0) {
+            logger.info(String.format("Received %,d messages from %,d clients in last %ds%s",
+                windowMessages, windowClients.size(), elapsed / 1000,
+                lost > 0 ? String.format(" (%,d audit entries not logged)", lost) : ""));
+        }
+
+        windowMessages = 0;
+        windowClients.clear();
+        windowStart = now;
+    }
+
+    /**
+     * Writes everything queued for the audit file
+     */
+    private void writeFile() {
+        if (fileQueue.isEmpty()) {
+            if (!config.settings().auditFile()) {
+                closeFile();
+            }
+            return;
+        }
+
+        try {
+            if (fileWriter == null) {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+                fileWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+
+            Entry entry;
+            while ((entry = fileQueue.poll()) != null) {
+                fileWriter.write(Instant.ofEpochMilli(entry.time()).toString());
+                fileWriter.write(' ');
+                fileWriter.write(entry.kind().name());
+                fileWriter.write(' ');
+                fileWriter.write(escape(String.valueOf(entry.client())));
+                if (entry.kind() != Kind.OPEN) {
+                    fileWriter.write(' ');
+                    fileWriter.write(entry.detail());
+                }
+                fileWriter.newLine();
+            }
+            fileWriter.flush();
+        } catch (IOException e) {
+            logger.error("Failed to write audit file: {}", e.getMessage());
+            closeFile();
+        }
+    }
+
+    /**
+     * Escapes backslashes and line breaks, so every entry stays on a line of its own
+     */
+    static String escape(String text) {
+        if (text == null || text.indexOf('\\') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+        return text.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private void closeFile() {
+        if (fileWriter == null) {
+            return;
+        }
+        try {
+            fileWriter.close();
+        } catch (IOException ignored) {
+        }
+        fileWriter = null;
+    }
+}
@@ -0,0 +1,51 @@
+package org.zamecki.minesocket.services;
+
+/**
+ * A connected client that messages come from and replies go back to
+ */
+public interface Client {
+    /**
+     * Stands in for messages that originate from the server itself, replies are discarded
+     */
+    Client SERVER = new Client() {
+        @Override
+        public String getId() {
+            return "server";
+        }
+
+        @Override
+        public void send(String message) {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    };
+
+    /**
+     * Identifies the client in logs, e.g. its remote address
+     */
+    String getId();
+
+    /**
+     * Name the client identified itself with, used to look up its connection settings
+     */
+    default String getName() {
+        return getId();
+    }
+
+    /**
+     * Sends a frame to the client, safe to call from any thread
+     */
+    void send(String message);
+
+    /**
+     * Sends a frame that belongs to a stream topic, so it can be replayed per topic after a reconnect
+     */
+    default void send(String topic, String message) {
+        send(message);
+    }
+
+    boolean isOpen();
+}
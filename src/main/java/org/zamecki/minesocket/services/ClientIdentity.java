@@ -0,0 +1,61 @@
+package org.zamecki.minesocket.services;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * How clients name themselves and prove they may use that name, shared by the transports
+ */
+public final class ClientIdentity {
+    /**
+     * Names the server gives to its own transports, a client cannot pick them through its path
+     */
+    public static final Set<String> RESERVED = Set.of(HttpService.CLIENT_NAME, UnixSocketService.CLIENT_NAME);
+
+    private ClientIdentity() {
+    }
+
+    /**
+     * Clients name themselves through the path they connect to, e.g. ws://host:port/modbot
+     *
+     * @param path the request path, query included
+     */
+    public static String nameFromPath(String path) {
+        String name = path == null ? "" : path;
+        int query = name.indexOf('?');
+        if (query >= 0) {
+            name = name.substring(0, query);
+        }
+        name = name.replaceAll("^/+|/+$", "");
+        return name.isEmpty() ? "default" : name;
+    }
+
+    public static boolean isReserved(String name) {
+        return RESERVED.contains(name);
+    }
+
+    /**
+     * Clients prove they may use their name with an "Authorization: Bearer" header or a token query parameter
+     *
+     * @param authorization the Authorization header, null or empty if none
+     * @param path          the request path, query included
+     * @return the token the client presented, or null if none
+     */
+    public static String token(String authorization, String path) {
+        if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return authorization.substring(7).strip();
+        }
+
+        int query = path == null ? -1 : path.indexOf('?');
+        if (query < 0) {
+            return null;
+        }
+        for (String parameter : path.substring(query + 1).split("&")) {
+            if (parameter.startsWith("token=")) {
+                return URLDecoder.decode(parameter.substring(6), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+}
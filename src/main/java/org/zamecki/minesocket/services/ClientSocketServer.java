@@ -0,0 +1,120 @@
+package org.zamecki.minesocket.services;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.BindException;
+import java.net.InetSocketAddress;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * WebSocket listener that hands its clients to a {@link MessageHandler}, independent of the mod configuration.
+ * Clients are named through their path, subclasses decide whether a client may use its name and follow the
+ * listener's lifecycle through {@link #onBound()} and {@link #onBindFailed(Exception)}.
+ */
+public abstract class ClientSocketServer extends WebSocketServer {
+    private final MessageHandler messageHandler;
+    // How the listener calls itself in the log, e.g. "WebSocket server"
+    private final String description;
+
+    protected ClientSocketServer(InetSocketAddress address, MessageHandler messageHandler, String description) {
+        super(address);
+        this.messageHandler = messageHandler;
+        this.description = description;
+        setReuseAddr(true); // Allows address reuse immediately
+        setConnectionLostTimeout(30); // Timeout to detect lost connections
+    }
+
+    /**
+     * Decides whether a client may connect under the name it picked, closing the connection if not
+     */
+    protected boolean admit(WebSocket conn, ClientHandshake handshake, String name) {
+        return true;
+    }
+
+    /**
+     * Called once the listener is bound
+     */
+    protected abstract void onBound();
+
+    /**
+     * Called when the listener could not be bound or failed later, it is not running anymore
+     */
+    protected abstract void onBindFailed(Exception cause);
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        String name = ClientIdentity.nameFromPath(handshake.getResourceDescriptor());
+        if (admit(conn, handshake, name)) {
+            conn.setAttachment(messageHandler.connected(new Connection(conn, name)));
+        }
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        if (conn.getAttachment() != null) {
+            messageHandler.disconnected(conn.getAttachment());
+        }
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        if (conn.getAttachment() == null) {
+            // Refused in onOpen
+            return;
+        }
+        messageHandler.handleMessage(conn.getAttachment(), message);
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        if (conn != null) {
+            logger.error("Error on connection to {}: {}", conn.getRemoteSocketAddress(), ex.getMessage());
+            conn.close();
+            return;
+        }
+
+        // Errors without a connection come from the listener itself, it is not running anymore
+        if (ex instanceof BindException) {
+            logger.error("Failed to start {}: port {} is already in use", description, getAddress().getPort());
+        } else {
+            logger.error("{} error: ", description, ex);
+        }
+        onBindFailed(ex);
+    }
+
+    @Override
+    public void onStart() {
+        logger.info("{} is starting...", description);
+        onBound();
+    }
+
+    /**
+     * Adapts a WebSocket connection to the transport independent {@link Client}
+     */
+    private record Connection(WebSocket conn, String name) implements Client {
+        @Override
+        public String getId() {
+            return String.valueOf(conn.getRemoteSocketAddress());
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void send(String message) {
+            if (conn.isOpen()) {
+                conn.send(message);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return conn.isOpen();
+        }
+    }
+}
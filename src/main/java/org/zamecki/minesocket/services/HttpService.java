@@ -0,0 +1,275 @@
+package org.zamecki.minesocket.services;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.zamecki.minesocket.config.MineSocketConfiguration;
+import org.zamecki.minesocket.config.Settings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * Plain HTTP endpoint for integrations that send single messages, e.g. webhooks.
+ * Connections are kept alive between requests, so a burst of webhooks pays for one TCP handshake
+ * instead of a WebSocket handshake and teardown per message.
+ *
+ * <p>Usage:
+ * <ul>
+ *     <li>POST /message with the message as the body - responds with the reply to it</li>
+ *     <li>POST /batch with one message per line - responds with a JSON array of the replies, in order</li>
+ * </ul>
+ * Commands and events reply once they ran on the server thread, with their result. A message the server
+ * has not run after 10 seconds is answered with status 202 and {"type":"queued"} in place of its reply:
+ * it is still queued and runs later, so retrying it would run it twice. Stream verbs and session resumes
+ * need a connection that stays open and are rejected.
+ *
+ * <p>Requests are checked against [connections.http]: the token goes in an "Authorization: Bearer" header or a
+ * token query parameter. A wrong token is answered with 401 and an address that is not allowed with 403.
+ */
+public class HttpService {
+    public static final String CLIENT_NAME = "http";
+
+    private static final int MAX_BODY_SIZE = 1 << 20;
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final long REPLY_TIMEOUT_MILLIS = 10_000;
+    // Stands in for the reply of a message still queued at the timeout, compared by identity
+    private static final String QUEUED = new String("{\"type\":\"queued\"}");
+    private static final Set<String> STREAM_VERBS = Set.of("subscribe", "unsubscribe", "ack", "resume");
+
+    private final MineSocketConfiguration config;
+    private final MessageHandler messageHandler;
+    private final AuditLog auditLog;
+    private final long replyTimeoutMillis;
+    private HttpServer server;
+    private InetSocketAddress address;
+    private ExecutorService executor;
+    // Whether the Minecraft server is up, the endpoint only listens while it is
+    private boolean started;
+
+    public HttpService(MineSocketConfiguration config, MessageHandler messageHandler, AuditLog auditLog) {
+        this(config, messageHandler, auditLog, REPLY_TIMEOUT_MILLIS);
+    }
+
+    HttpService(MineSocketConfiguration config, MessageHandler messageHandler, AuditLog auditLog,
+                long replyTimeoutMillis) {
+        this.config = config;
+        this.messageHandler = messageHandler;
+        this.auditLog = auditLog;
+        this.replyTimeoutMillis = replyTimeoutMillis;
+    }
+
+    /**
+     * Starts listening if an HTTP port is configured, does nothing if it already listens there
+     */
+    public synchronized void start() {
+        started = true;
+        Settings settings = config.settings();
+        InetSocketAddress target = settings.httpPort() > 0
+            ? new InetSocketAddress(settings.host(), settings.httpPort())
+            : null;
+        if (server != null && target != null && target.equals(address)) {
+            return;
+        }
+
+        close();
+        if (target == null) {
+            return;
+        }
+
+        try {
+            HttpServer created = HttpServer.create(target, 0);
+            created.createContext("/message", exchange -> handle(exchange, false));
+            created.createContext("/batch", exchange -> handle(exchange, true));
+            // Requests mostly wait for the next tick, a virtual thread each keeps that cheap
+            executor = Executors.newVirtualThreadPerTaskExecutor();
+            created.setExecutor(executor);
+            created.start();
+            server = created;
+            address = target;
+            logger.info("HTTP endpoint listening on {}:{}", target.getHostString(), target.getPort());
+        } catch (IOException e) {
+            logger.error("Failed to start HTTP endpoint on port {}: {}", target.getPort(), e.getMessage());
+        }
+    }
+
+    /**
+     * Applies a changed port, only while the server is running
+     */
+    public synchronized void reload() {
+        if (started) {
+            start();
+        }
+    }
+
+    public synchronized void stop() {
+        started = false;
+        close();
+    }
+
+    private void close() {
+        if (server == null) {
+            return;
+        }
+        server.stop(1);
+        executor.shutdown();
+        server = null;
+        address = null;
+        executor = null;
+    }
+
+    private void handle(HttpExchange exchange, boolean batch) throws IOException {
+        try (exchange) {
+            try {
+                process(exchange, batch);
+            } catch (Exception e) {
+                logger.error("Error handling HTTP request: ", e);
+                // Unless the response was already on its way
+                if (exchange.getResponseCode() == -1) {
+                    respond(exchange, 500, QueryService.error("Internal server error"));
+                }
+            }
+        }
+    }
+
+    private void process(HttpExchange exchange, boolean batch) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            exchange.getResponseHeaders().add("Allow", "POST");
+            respond(exchange, 405, QueryService.error("Only POST is supported"));
+            return;
+        }
+
+        // Callers are checked against [connections.http] like WebSocket clients against their own table
+        Settings.ConnectionSettings settings = config.settings().getConnectionSettings(CLIENT_NAME);
+        String token = ClientIdentity.token(exchange.getRequestHeaders().getFirst("Authorization"),
+            exchange.getRequestURI().toString());
+        if (!settings.acceptsToken(token)) {
+            exchange.getResponseHeaders().add("WWW-Authenticate", "Bearer");
+            respond(exchange, 401, QueryService.error("Missing or wrong token"));
+            return;
+        }
+        if (!settings.allowsAddress(exchange.getRemoteAddress().getAddress())) {
+            respond(exchange, 403, QueryService.error("Address not allowed"));
+            return;
+        }
+
+        byte[] body = readBody(exchange.getRequestBody());
+        if (body == null) {
+            respond(exchange, 413, QueryService.error("Request body is larger than " + MAX_BODY_SIZE + " bytes"));
+            return;
+        }
+
+        String text = new String(body, StandardCharsets.UTF_8);
+        List<String> messages = new ArrayList<>();
+        if (batch) {
+            for (String line : text.split("\r?\n")) {
+                if (!line.isBlank()) {
+                    messages.add(line.strip());
+                }
+            }
+        } else if (!text.isBlank()) {
+            messages.add(text.strip());
+        }
+
+        if (messages.isEmpty() || messages.size() > MAX_BATCH_SIZE) {
+            respond(exchange, 400, QueryService.error("Expected between 1 and " + MAX_BATCH_SIZE + " messages"));
+            return;
+        }
+        for (String message : messages) {
+            if (STREAM_VERBS.contains(verb(message))) {
+                respond(exchange, 400, QueryService.error("'" + verb(message) + "' is not available over HTTP"));
+                return;
+            }
+        }
+
+        // Dispatch everything first so a batch runs in the same tick where possible
+        String remote = String.valueOf(exchange.getRemoteAddress());
+        List<HttpReply> replies = new ArrayList<>(messages.size());
+        for (String message : messages) {
+            HttpReply reply = new HttpReply(remote, replyTimeoutMillis);
+            replies.add(reply);
+            auditLog.received(remote, message);
+            messageHandler.handleMessage(reply, message);
+        }
+
+        // 202 as soon as one message is still queued, the caller must not retry it
+        int status = 200;
+        StringBuilder response = new StringBuilder(batch ? "[" : "");
+        for (int i = 0; i < replies.size(); i++) {
+            String result = replies.get(i).result.join();
+            if (result == QUEUED) {
+                status = 202;
+            }
+            response.append(i > 0 ? "," : "").append(result);
+        }
+        respond(exchange, status, batch ? response.append(']').toString() : response.toString());
+    }
+
+    private static String verb(String message) {
+        // Skip a "#tag" prefix, the verb is the word after it
+        String[] words = message.split(" ", 3);
+        String verb = words[0].startsWith("#") && words.length > 1 ? words[1] : words[0];
+        return verb.toLowerCase(Locale.ROOT);
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        byte[] body = in.readNBytes(MAX_BODY_SIZE + 1);
+        return body.length > MAX_BODY_SIZE ? null : body;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        // A fixed length keeps the connection reusable for the next request
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Stands in for the client of one message, the first reply it gets answers the request
+     */
+    private static class HttpReply implements Client {
+        private final String remote;
+        private final CompletableFuture<String> result;
+
+        private HttpReply(String remote, long timeoutMillis) {
+            this.remote = remote;
+            this.result = new CompletableFuture<String>().completeOnTimeout(QUEUED, timeoutMillis,
+                TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public String getId() {
+            return CLIENT_NAME + ":" + remote;
+        }
+
+        @Override
+        public String getName() {
+            return CLIENT_NAME;
+        }
+
+        @Override
+        public void send(String message) {
+            result.complete(message);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !result.isDone();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.zamecki.minesocket.services;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Ingress queue split into priority lanes, drained fairly across connections.
+ * Higher lanes are always drained first. Within a lane every connection gets its own flow and
+ * flows are served with deficit round robin, so a chatty client cannot starve the others and
+ * the work done per tick stays within the budget.
+ *
+ * <p>Items are offered from any thread; draining happens on the server thread only.
+ */
+public class IngressQueue<T> {
+    /**
+     * Lanes in priority order.
+     * Read-only queries are answered on the I/O thread and never reach the tick, so the query lane
+     * only carries connections pinned to it and messages that match no other lane.
+     */
+    public enum Lane {
+        ADMIN, EVENT, QUERY;
+
+        /**
+         * @return the lane with that name, or null if there is none
+         */
+        public static Lane byName(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    private record Arrival<T>(Lane lane, String flowKey, int weight, T item) {
+    }
+
+    private static final class Flow<T> {
+        private final String key;
+        private final ArrayDeque<T> items = new ArrayDeque<>();
+        private int weight;
+        private int deficit;
+        private boolean active;
+
+        private Flow(String key) {
+            this.key = key;
+        }
+    }
+
+    // Items each flow may take per round and per unit of weight
+    private static final int QUANTUM = 4;
+
+    private final Queue<Arrival<T>> inbox = new ConcurrentLinkedQueue<>();
+
+    // Only touched by the server thread
+    private final Map<Lane, Map<String, Flow<T>>> flows = new EnumMap<>(Lane.class);
+    private final Map<Lane, ArrayDeque<Flow<T>>> active = new EnumMap<>(Lane.class);
+    private int size;
+
+    public IngressQueue() {
+        for (Lane lane : Lane.values()) {
+            flows.put(lane, new HashMap<>());
+            active.put(lane, new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Queues an item, safe to call from any thread
+     *
+     * @param flowKey identifies the connection the item came from
+     * @param weight  share of the lane the connection gets relative to the others
+     */
+    public void offer(Lane lane, String flowKey, int weight, T item) {
+        inbox.add(new Arrival<>(lane, flowKey, Math.max(1, weight), item));
+    }
+
+    /**
+     * @return items waiting to be drained, including those not sorted into flows yet
+     */
+    public int size() {
+        return size + inbox.size();
+    }
+
+    public void clear() {
+        inbox.clear();
+        flows.values().forEach(Map::clear);
+        active.values().forEach(ArrayDeque::clear);
+        size = 0;
+    }
+
+    /**
+     * Drains up to budget ready items, highest lane first
+     *
+     * @param ready    whether an item can run yet, items that are not ready hold back their own flow only
+     * @param consumer receives the drained items
+     * @return the number of items drained
+     */
+    public int drain(int budget, Predicate<T> ready, Consumer<T> consumer) {
+        sortArrivals();
+
+        int drained = 0;
+        for (Lane lane : Lane.values()) {
+            ArrayDeque<Flow<T>> round = active.get(lane);
+            // Stop once every flow in the lane was visited without progress
+            int idle = 0;
+            while (drained < budget && !round.isEmpty() && idle < round.size()) {
+                Flow<T> flow = round.pollFirst();
+                if (flow.deficit <= 0) {
+                    flow.deficit += QUANTUM * flow.weight;
+                }
+
+                int before = drained;
+                while (flow.deficit > 0 && drained < budget && !flow.items.isEmpty()
+                    && ready.test(flow.items.peekFirst())) {
+                    consumer.accept(flow.items.pollFirst());
+                    flow.deficit--;
+                    drained++;
+                    size--;
+                }
+                idle = drained == before ? idle + 1 : 0;
+
+                if (flow.items.isEmpty()) {
+                    // Idle flows do not bank credit for later
+                    flow.active = false;
+                    flow.deficit = 0;
+                    flows.get(lane).remove(flow.key);
+                } else {
+                    round.addLast(flow);
+                }
+            }
+
+            if (drained >= budget) {
+                break;
+            }
+        }
+        return drained;
+    }
+
+    private void sortArrivals() {
+        Arrival<T> arrival;
+        while ((arrival = inbox.poll()) != null) {
+            Flow<T> flow = flows.get(arrival.lane()).computeIfAbsent(arrival.flowKey(), Flow::new);
+            flow.weight = arrival.weight();
+            flow.items.addLast(arrival.item());
+            size++;
+            if (!flow.active) {
+                flow.active = true;
+                active.get(arrival.lane()).addLast(flow);
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package org.zamecki.minesocket.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * Append-only write-ahead journal of accepted messages.
+ * Records are buffered from any thread and group-committed once per tick into a memory-mapped
+ * segment. When a segment is full the unfinished entries are copied into a fresh segment and the
+ * older ones are deleted, so the journal only ever holds what still needs to be replayed.
+ * A fresh segment grows beyond the usual size when the unfinished entries alone would not fit.
+ */
+public class Journal {
+    private static final int SEGMENT_SIZE = 1 << 20;
+    // Larger messages are executed but not journaled, which keeps a compacted segment small
+    static final int MAX_RECORD_SIZE = 64 * 1024;
+    // type + id + payload length
+    private static final int HEADER_SIZE = 1 + 8 + 4;
+
+    private static final byte END = 0;
+    private static final byte ACCEPT = 1;
+    private static final byte PROGRESS = 2;
+    private static final byte COMPLETE = 3;
+
+    /**
+     * An accepted message that has not completed yet
+     *
+     * @param progress ticks the resulting event had already run for
+     */
+    public record Entry(long id, String message, int progress) {
+    }
+
+    private record Record(byte type, long id, byte[] payload) {
+    }
+
+    private final Path directory;
+    private final boolean enabled;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Queue<Record> pending = new ConcurrentLinkedQueue<>();
+
+    // Only touched by the server thread
+    private final Map<Long, Entry> live = new LinkedHashMap<>();
+    private int segmentIndex;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    public Journal(Path directory, boolean enabled) {
+        this.directory = directory;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Reads the existing segments and starts a new, compacted one
+     *
+     * @return the entries that were accepted but never completed, in acceptance order
+     */
+    public List<Entry> open() {
+        if (!enabled) {
+            return List.of();
+        }
+
+        try {
+            Files.createDirectories(directory);
+            List<Path> segments = listSegments();
+            for (Path segment : segments) {
+                readSegment(segment);
+            }
+            if (!segments.isEmpty()) {
+                segmentIndex = segmentIndex(segments.getLast());
+            }
+            roll(0);
+        } catch (IOException e) {
+            logger.error("Failed to open journal in {}: {}", directory, e.getMessage());
+            return List.of();
+        }
+
+        long maxId = live.keySet().stream().mapToLong(Long::longValue).max().orElse(0);
+        nextId.set(Math.max(nextId.get(), maxId + 1));
+        return new ArrayList<>(live.values());
+    }
+
+    /**
+     * Records a message as accepted, safe to call from any thread
+     *
+     * @return the id used to mark the message as completed later
+     */
+    public long accept(String message) {
+        long id = nextId.getAndIncrement();
+        if (enabled) {
+            pending.add(new Record(ACCEPT, id, message.getBytes(StandardCharsets.UTF_8)));
+        }
+        return id;
+    }
+
+    public void progress(long id, int ticks) {
+        if (enabled) {
+            pending.add(new Record(PROGRESS, id, ByteBuffer.allocate(4).putInt(ticks).array()));
+        }
+    }
+
+    public void complete(long id) {
+        if (enabled) {
+            pending.add(new Record(COMPLETE, id, new byte[0]));
+        }
+    }
+
+    /**
+     * Writes every buffered record and forces the segment to disk, called once per tick
+     */
+    public void commit() {
+        if (buffer == null || pending.isEmpty()) {
+            return;
+        }
+
+        try {
+            Record record;
+            while ((record = pending.poll()) != null) {
+                // A record that was not written must not reach the live set either, or a roll would copy it
+                if (write(record)) {
+                    apply(record);
+                }
+            }
+            buffer.force();
+        } catch (IOException e) {
+            logger.error("Failed to write journal: {}", e.getMessage());
+        }
+    }
+
+    public void close() {
+        commit();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ignored) {
+        }
+        channel = null;
+        buffer = null;
+    }
+
+    /**
+     * @return false if the record is too large to journal and was skipped
+     */
+    private boolean write(Record record) throws IOException {
+        int size = HEADER_SIZE + record.payload().length;
+        if (size > MAX_RECORD_SIZE) {
+            logger.warn("Message {} is too large to journal, it will not be replayed", record.id());
+            return false;
+        }
+        if (buffer.remaining() < size) {
+            roll(size);
+        }
+        put(record);
+        return true;
+    }
+
+    /**
+     * Appends a record to the current segment, which must have room for it
+     */
+    private void put(Record record) {
+        int size = HEADER_SIZE + record.payload().length;
+        if (buffer.remaining() < size) {
+            throw new IllegalStateException("Journal segment " + segmentIndex + " has no room for record "
+                + record.id());
+        }
+
+        // The type byte goes last so a torn write reads as the end of the segment
+        int start = buffer.position();
+        buffer.position(start + 1);
+        buffer.putLong(record.id());
+        buffer.putInt(record.payload().length);
+        buffer.put(record.payload());
+        buffer.put(start, record.type());
+    }
+
+    private void apply(Record record) {
+        switch (record.type()) {
+            case ACCEPT -> live.put(record.id(),
+                new Entry(record.id(), new String(record.payload(), StandardCharsets.UTF_8), 0));
+            case PROGRESS -> live.computeIfPresent(record.id(),
+                (id, entry) -> new Entry(id, entry.message(), ByteBuffer.wrap(record.payload()).getInt()));
+            case COMPLETE -> live.remove(record.id());
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Starts the next segment seeded with the live entries and deletes the older ones
+     *
+     * @param needed bytes the record that did not fit anymore takes
+     */
+    private void roll(int needed) throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            channel.close();
+        }
+
+        List<Record> records = new ArrayList<>(live.size());
+        long liveBytes = 0;
+        for (Entry entry : live.values()) {
+            Record accept = new Record(ACCEPT, entry.id(), entry.message().getBytes(StandardCharsets.UTF_8));
+            records.add(accept);
+            liveBytes += HEADER_SIZE + accept.payload().length;
+            if (entry.progress() > 0) {
+                records.add(new Record(PROGRESS, entry.id(), ByteBuffer.allocate(4).putInt(entry.progress()).array()));
+                liveBytes += HEADER_SIZE + 4;
+            }
+        }
+        // Leave as much room again as the live entries take, so a large backlog does not roll every tick
+        long size = Math.max(SEGMENT_SIZE, 2 * liveBytes + needed);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Unfinished messages take " + liveBytes + " bytes, too many to journal");
+        }
+
+        segmentIndex++;
+        Path segment = directory.resolve(String.format("segment-%08d.log", segmentIndex));
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        for (Record record : records) {
+            put(record);
+        }
+        buffer.force();
+
+        // Only drop the old segments once the compacted copy is on disk
+        for (Path old : listSegments()) {
+            if (segmentIndex(old) < segmentIndex) {
+                try {
+                    Files.delete(old);
+                } catch (IOException e) {
+                    // Still mapped on some platforms, the next open replays it harmlessly
+                    logger.debug("Could not delete journal segment {}: {}", old, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void readSegment(Path segment) throws IOException {
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            while (data.remaining() >= HEADER_SIZE) {
+                byte type = data.get();
+                if (type == END) {
+                    break;
+                }
+                long id = data.getLong();
+                int length = data.getInt();
+                if (length < 0 || length > data.remaining()) {
+                    logger.warn("Journal segment {} is truncated, ignoring the rest", segment.getFileName());
+                    break;
+                }
+                byte[] payload = new byte[length];
+                data.get(payload);
+                apply(new Record(type, id, payload));
+            }
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> path.getFileName().toString().matches("segment-\\d{8}\\.log"))
+                .sorted()
+                .toList();
+        }
+    }
+
+    private static int segmentIndex(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring("segment-".length(), name.length() - ".log".length()));
+    }
+}
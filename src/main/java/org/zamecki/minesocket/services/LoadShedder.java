@@ -0,0 +1,125 @@
+package org.zamecki.minesocket.services;
+
+import com.google.gson.JsonObject;
+import net.minecraft.server.MinecraftServer;
+import org.zamecki.minesocket.config.MineSocketConfiguration;
+import org.zamecki.minesocket.config.Settings;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * Scales MineSocket's own work down while the server is struggling.
+ * The server's average tick time is sampled every tick; crossing a threshold raises the level right away,
+ * while recovery goes down one level at a time and only after the tick time stayed low for a while,
+ * so the level does not flap around a threshold.
+ *
+ * <p>Each level scales the drain budget, firework spawn rate, boss bar updates and position stream rate.
+ * Lower lanes are drained last, so a smaller budget defers events and queries before admin commands.
+ */
+public class LoadShedder {
+    public enum Level {
+        NORMAL(1.0, 1), ELEVATED(0.5, 5), CRITICAL(0.25, 20);
+
+        // Share of the normal work rate that is kept
+        private final double scale;
+        // Ticks between boss bar updates
+        private final int bossBarInterval;
+
+        Level(double scale, int bossBarInterval) {
+            this.scale = scale;
+            this.bossBarInterval = bossBarInterval;
+        }
+    }
+
+    private final MineSocketConfiguration config;
+    // Written by the server thread, read by the stream and I/O threads
+    private volatile Level level = Level.NORMAL;
+    private volatile double mspt;
+    private volatile long changes;
+    private int ticksBelow;
+
+    public LoadShedder(MineSocketConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+     * Samples the server's tick time, called once per tick on the server thread
+     */
+    public void sample(MinecraftServer server) {
+        sample(server.getAverageNanosPerTick() / 1_000_000.0);
+    }
+
+    /**
+     * Samples an average tick time in ms
+     */
+    void sample(double current) {
+        Settings settings = config.settings();
+        mspt = current;
+
+        Level target = current >= settings.loadCriticalMspt() ? Level.CRITICAL
+            : current >= settings.loadElevatedMspt() ? Level.ELEVATED
+            : Level.NORMAL;
+
+        if (target.ordinal() > level.ordinal()) {
+            change(target, current);
+        } else if (target.ordinal() < level.ordinal()) {
+            // Step down one level once the tick time stayed below the current level long enough
+            if (++ticksBelow >= settings.loadRecoverTicks()) {
+                change(Level.values()[level.ordinal() - 1], current);
+            }
+        } else {
+            ticksBelow = 0;
+        }
+    }
+
+    private void change(Level next, double current) {
+        if (next.ordinal() > level.ordinal()) {
+            logger.warn("Server at {} ms per tick, shedding MineSocket load: {} -> {}", String.format("%.1f", current),
+                level, next);
+        } else {
+            logger.info("Server at {} ms per tick, restoring MineSocket load: {} -> {}", String.format("%.1f", current),
+                level, next);
+        }
+        level = next;
+        ticksBelow = 0;
+        changes++;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the budget to use instead of a configured per tick budget, never below 1
+     */
+    public int scaleBudget(int budget) {
+        return Math.max(1, (int) (budget * level.scale));
+    }
+
+    /**
+     * @return the interval to use instead of a configured interval, stretched while shedding
+     */
+    public int scaleInterval(int interval) {
+        return (int) Math.ceil(interval / level.scale);
+    }
+
+    public int getBossBarInterval() {
+        return level.bossBarInterval;
+    }
+
+    /**
+     * Answers "query load"
+     */
+    public String toJson() {
+        Level current = level;
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "load");
+        json.addProperty("level", current.name().toLowerCase());
+        json.addProperty("mspt", Math.round(mspt * 100) / 100.0);
+        json.addProperty("scale", current.scale);
+        json.addProperty("drainBudget", Math.max(1, (int) (config.settings().drainBudget() * current.scale)));
+        json.addProperty("bossBarInterval", current.bossBarInterval);
+        json.addProperty("changes", changes);
+        return json.toString();
+    }
+}
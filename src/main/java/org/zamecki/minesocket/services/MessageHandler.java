@@ -0,0 +1,25 @@
+package org.zamecki.minesocket.services;
+
+/**
+ * Receives the messages of every client connected to a transport
+ */
+public interface MessageHandler {
+    /**
+     * Called when a connection opens, before any of its messages
+     *
+     * @return the client to pass for this connection from now on
+     */
+    default Client connected(Client connection) {
+        return connection;
+    }
+
+    /**
+     * Handles a message, called from the transport's I/O threads
+     */
+    void handleMessage(Client client, String message);
+
+    /**
+     * Forgets everything tied to a client once its connection is gone
+     */
+    void disconnected(Client client);
+}
@@ -0,0 +1,388 @@
+package org.zamecki.minesocket.services;
+
+import com.google.gson.JsonObject;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * Tick-indexed scheduler for delayed and repeating messages.
+ * Entries live in a priority queue ordered by due tick, so inserting costs O(log n) and an idle
+ * tick only peeks at the head. Cancelled entries are dropped lazily when they reach the head.
+ *
+ * <p>Usage via WebSocket:
+ * <ul>
+ *     <li>"schedule 30s event FireworkEvent Player1" - runs the message once after 30 seconds</li>
+ *     <li>"every 5m command say Thanks for watching!" - runs the message every 5 minutes</li>
+ *     <li>"cancel &lt;id&gt;" - cancels a scheduled message, only from a client with the name that scheduled it</li>
+ * </ul>
+ * Durations accept a t (ticks), s, m or h suffix, plain numbers are ticks.
+ * Messages restored after a restart keep their owner's name but run as the server, any entry can be cancelled
+ * with /ms cancel.
+ */
+public class MessageScheduler {
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_ENTRIES = 100_000;
+    static final int MAX_MESSAGE_SIZE = 32 * 1024;
+    // Client names come from a request path, which the WebSocket library caps well below this
+    private static final int MAX_NAME_SIZE = 64 * 1024;
+    // Persist at most this often while entries change
+    private static final int SAVE_INTERVAL = 200;
+
+    private static final class Entry {
+        private final long id;
+        private final int period;
+        private final String message;
+        // Replies go to the client, the name decides who may cancel
+        private final Client owner;
+        private final String ownerName;
+        private long dueTick;
+        private boolean cancelled;
+
+        private Entry(long id, long dueTick, int period, String message, Client owner, String ownerName) {
+            this.id = id;
+            this.dueTick = dueTick;
+            this.period = period;
+            this.message = message;
+            this.owner = owner;
+            this.ownerName = ownerName;
+        }
+    }
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>((a, b) -> Long.compare(a.dueTick, b.dueTick));
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final Path file;
+    private final Executor writer;
+    private long nextId = 1;
+    private long currentTick;
+    private long lastSave;
+    private boolean dirty;
+    // A one-shot entry fired and is still in the saved file
+    private boolean fired;
+    private long saveVersion;
+    // Guarded by the file lock
+    private long writtenVersion;
+
+    public MessageScheduler(Path file, Executor writer) {
+        this.file = file;
+        this.writer = writer;
+    }
+
+    /**
+     * Handles the schedule, every and cancel verbs, safe to call from any thread
+     */
+    public synchronized void handle(Client client, String verb, String args) {
+        if (verb.equals("cancel")) {
+            cancel(client, args.trim());
+            return;
+        }
+
+        String[] words = args.trim().split(" ", 2);
+        if (words.length < 2 || words[1].isBlank()) {
+            client.send(QueryService.error("Usage: " + verb + " <duration> <message>"));
+            return;
+        }
+
+        int ticks = parseDuration(words[0]);
+        if (ticks < 0 || (verb.equals("every") && ticks == 0)) {
+            client.send(QueryService.error("Invalid duration: '" + words[0] + "'"));
+            return;
+        }
+        if (words[1].getBytes(StandardCharsets.UTF_8).length > MAX_MESSAGE_SIZE) {
+            client.send(QueryService.error("Messages longer than " + MAX_MESSAGE_SIZE + " bytes cannot be scheduled"));
+            return;
+        }
+        if (entries.size() >= MAX_ENTRIES) {
+            client.send(QueryService.error("Too many scheduled messages"));
+            return;
+        }
+
+        int period = verb.equals("every") ? ticks : 0;
+        Entry entry = new Entry(nextId++, currentTick + ticks, period, words[1], client, ownerName(client));
+        queue.add(entry);
+        entries.put(entry.id, entry);
+        dirty = true;
+
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "scheduled");
+        json.addProperty("id", entry.id);
+        json.addProperty("dueInTicks", ticks);
+        json.addProperty("every", period);
+        client.send(json.toString());
+    }
+
+    private void cancel(Client client, String args) {
+        Entry entry;
+        try {
+            entry = entries.get(Long.parseLong(args));
+        } catch (NumberFormatException e) {
+            entry = null;
+        }
+        // Someone else's entry looks exactly like a missing one, so ids cannot be probed
+        if (entry == null || !entry.ownerName.equals(ownerName(client))) {
+            client.send(QueryService.error("No scheduled message with id '" + args + "'"));
+            return;
+        }
+
+        remove(entry);
+
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "cancelled");
+        json.addProperty("id", entry.id);
+        client.send(json.toString());
+    }
+
+    /**
+     * Cancels any entry regardless of who scheduled it, for the server console
+     *
+     * @return false if there is no entry with that id
+     */
+    public synchronized boolean cancel(long id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            return false;
+        }
+        remove(entry);
+        return true;
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.id);
+        entry.cancelled = true;
+        dirty = true;
+
+        // Rebuild once cancelled entries make up most of the queue, so they cannot pile up
+        if (queue.size() > 64 && entries.size() < queue.size() / 2) {
+            queue.removeIf(queued -> queued.cancelled);
+        }
+    }
+
+    /**
+     * The name that owns a client's entries. Transports only let a client claim a configured name with its token,
+     * so a reconnecting client or another request over HTTP can cancel what it scheduled before.
+     */
+    private static String ownerName(Client client) {
+        while (client instanceof TaggedClient tagged) {
+            client = tagged.delegate();
+        }
+        return (client instanceof Session session ? session.resolve() : client).getName();
+    }
+
+    /**
+     * Runs the due entries, called once per tick on the server thread
+     *
+     * @param dispatch receives the owner and message of every entry that is due
+     */
+    public void tick(BiConsumer<Client, String> dispatch) {
+        List<Entry> due = null;
+        synchronized (this) {
+            currentTick++;
+            Entry head;
+            while ((head = queue.peek()) != null && head.dueTick <= currentTick) {
+                queue.poll();
+                if (head.cancelled) {
+                    continue;
+                }
+                if (due == null) {
+                    due = new ArrayList<>();
+                }
+                due.add(head);
+
+                if (head.period > 0) {
+                    head.dueTick += head.period;
+                    queue.add(head);
+                } else {
+                    entries.remove(head.id);
+                    fired = true;
+                }
+                dirty = true;
+            }
+
+            // Fired one-shot entries wait for commit, which must not save before the journal holds them
+            if (dirty && !fired && currentTick - lastSave >= SAVE_INTERVAL) {
+                saveAsync();
+            }
+        }
+
+        // Dispatch outside the lock, handling a message may schedule new ones
+        if (due != null) {
+            for (Entry entry : due) {
+                dispatch.accept(entry.owner, entry.message);
+            }
+        }
+    }
+
+    /**
+     * Saves right away once one-shot entries fired, so a crash cannot run them again from the file.
+     * Called after the journal commit that holds their messages, which replays them instead.
+     */
+    public void commit() {
+        synchronized (this) {
+            if (!fired) {
+                return;
+            }
+        }
+        save();
+    }
+
+    /**
+     * Restores the entries saved by a previous run, keeping their remaining delay
+     */
+    public synchronized void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                logger.warn("Unsupported scheduler file version, ignoring {}", file);
+                return;
+            }
+            nextId = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                int delay = in.readInt();
+                int period = in.readInt();
+                String message = readString(in, MAX_MESSAGE_SIZE);
+                String ownerName = readString(in, MAX_NAME_SIZE);
+                Entry entry = new Entry(id, currentTick + delay, period, message, Client.SERVER, ownerName);
+                queue.add(entry);
+                entries.put(entry.id, entry);
+            }
+            if (count > 0) {
+                logger.info("Restored {} scheduled messages", count);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to read scheduled messages from {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the entries synchronously, used when the server stops
+     */
+    public void save() {
+        byte[] data;
+        long version;
+        synchronized (this) {
+            data = serialize();
+            version = ++saveVersion;
+        }
+        write(data, version);
+    }
+
+    private void saveAsync() {
+        // Only the copy happens on the server thread, the disk write does not
+        byte[] data = serialize();
+        long version = ++saveVersion;
+        writer.execute(() -> write(data, version));
+    }
+
+    private byte[] serialize() {
+        dirty = false;
+        fired = false;
+        lastSave = currentTick;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + entries.size() * 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(nextId);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeLong(entry.id);
+                out.writeInt((int) Math.max(0, entry.dueTick - currentTick));
+                out.writeInt(entry.period);
+                writeString(out, entry.message);
+                writeString(out, entry.ownerName);
+            }
+        } catch (IOException e) {
+            // A ByteArrayOutputStream never throws, and the messages are length-prefixed bytes
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Scheduled message field of " + length + " bytes is out of range");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void write(byte[] data, long version) {
+        // Separate lock so a slow disk never holds up the tick
+        synchronized (file) {
+            // Background writes may finish out of order, never replace a newer save
+            if (version <= writtenVersion) {
+                return;
+            }
+            writtenVersion = version;
+            writeFile(data);
+        }
+    }
+
+    private void writeFile(byte[] data) {
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (BufferedOutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                out.write(data);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Failed to save scheduled messages to {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the duration in ticks, or -1 if it cannot be parsed
+     */
+    static int parseDuration(String value) {
+        if (value.isEmpty()) {
+            return -1;
+        }
+
+        int multiplier = switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+            case 't' -> 1;
+            case 's' -> 20;
+            case 'm' -> 20 * 60;
+            case 'h' -> 20 * 60 * 60;
+            default -> 0;
+        };
+        String number = multiplier == 0 ? value : value.substring(0, value.length() - 1);
+
+        try {
+            long ticks = Long.parseLong(number) * Math.max(1, multiplier);
+            return ticks < 0 || ticks > Integer.MAX_VALUE ? -1 : (int) ticks;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
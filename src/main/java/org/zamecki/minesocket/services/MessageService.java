@@ -1,14 +1,75 @@
 package org.zamecki.minesocket.services;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import net.minecraft.command.ReturnValueConsumer;
+import net.minecraft.resource.ResourceManager;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.CommandOutput;
+import net.minecraft.text.Text;
+import net.minecraft.util.WorldSavePath;
 import org.zamecki.minesocket.config.MineSocketConfiguration;
+import org.zamecki.minesocket.config.Settings;
 import org.zamecki.minesocket.event.EventManager;
+import org.zamecki.minesocket.event.IGameEvent;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.zamecki.minesocket.ModData.logger;
 
-public class MessageService {
-    MinecraftServer server;
-    EventManager eventManager;
+public class MessageService implements MessageHandler {
+    // How long a replayed event waits for its player to come back online, five minutes
+    private static final long REPLAY_WINDOW_TICKS = 5 * 60 * 20;
+
+    volatile MinecraftServer server;
+    volatile EventManager eventManager;
+    volatile Journal journal;
+    volatile MessageScheduler scheduler;
+    private final MineSocketConfiguration config;
+    private final LoadShedder loadShedder;
+    private final QueryService queryService;
+    private final PositionStream positionStream;
+    private final TelemetryStream telemetry = new TelemetryStream();
+    private final SessionManager sessions;
+
+    // Each message is decoded on its own virtual thread, each connection's messages run in arrival order
+    private final ExecutorService preprocessor = Executors.newVirtualThreadPerTaskExecutor();
+    private final IngressQueue<Pending> pending = new IngressQueue<>();
+    private final ReplayBacklog<Replay> replays = new ReplayBacklog<>(REPLAY_WINDOW_TICKS);
+
+    /**
+     * A message waiting to be executed
+     *
+     * @param resumeTicks ticks its event had already run for, when replayed from the journal
+     * @param replayed    whether it was replayed from the journal
+     */
+    private record Pending(Client client, long journalId, int resumeTicks, boolean replayed,
+                           CompletableFuture<WorkItem> item) {
+    }
+
+    /**
+     * A replayed event waiting for its target to come online
+     */
+    private record Replay(String eventName, IGameEvent event, long journalId, int resumeTicks) {
+    }
+
+    public MessageService(MineSocketConfiguration config) {
+        this.config = config;
+        this.loadShedder = new LoadShedder(config);
+        this.queryService = new QueryService(loadShedder);
+        this.positionStream = new PositionStream(config, queryService, loadShedder);
+        this.sessions = new SessionManager(config, client -> {
+            positionStream.disconnected(client);
+            telemetry.disconnected(client);
+        });
+        sessions.registerSnapshot(PositionStream.TOPIC, positionStream::requestKeyframe);
+    }
 
     public void start(MinecraftServer server, MineSocketConfiguration config) {
         if (server == null) {
@@ -16,10 +77,195 @@ public class MessageService {
             return;
         }
         this.server = server;
-        eventManager = new EventManager(server, config);
+        pending.clear();
+        replays.clear();
+
+        Path dataDirectory = server.getSavePath(WorldSavePath.ROOT).resolve("minesocket");
+        journal = new Journal(dataDirectory.resolve("journal"), config.settings().journal());
+        eventManager = new EventManager(server, config, journal, loadShedder);
+        eventManager.loadDefinitions(server.getResourceManager());
+
+        scheduler = new MessageScheduler(dataDirectory.resolve("schedule.dat"), preprocessor);
+        scheduler.load();
+
+        // Replay whatever was accepted but did not finish before the last shutdown
+        List<Journal.Entry> unfinished = journal.open();
+        if (!unfinished.isEmpty()) {
+            logger.info("Replaying {} unfinished messages from the journal", unfinished.size());
+        }
+        for (Journal.Entry entry : unfinished) {
+            enqueue(Client.SERVER, entry.message(), entry.id(), entry.progress(), true);
+        }
+    }
+
+    /**
+     * Retries replayed events that were waiting for their player, called when a player joins
+     */
+    public void playerJoined() {
+        replays.requestRetry();
+    }
+
+    /**
+     * @return the telemetry stream, fed by the tick, entity and chunk hooks
+     */
+    public TelemetryStream getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * @return the scheduler, or null while no server is running
+     */
+    public MessageScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return the event manager, or null while no server is running
+     */
+    public EventManager getEventManager() {
+        return eventManager;
+    }
+
+    /**
+     * Recompiles event definitions after a datapack reload
+     */
+    public void reloadEvents(ResourceManager resourceManager) {
+        if (eventManager != null) {
+            eventManager.loadDefinitions(resourceManager);
+        }
+    }
+
+    public void stop() {
+        if (journal != null) {
+            journal.close();
+        }
+        if (scheduler != null) {
+            scheduler.save();
+        }
+    }
+
+    @Override
+    public Client connected(Client connection) {
+        return sessions.open(connection);
+    }
+
+    /**
+     * Accepts a message from any thread, decoding happens in the background.
+     * Queries and stream subscriptions are handled right away on the calling thread.
+     */
+    @Override
+    public void handleMessage(Client client, String message) {
+        // A resumed connection acts as the session it resumed
+        if (client instanceof Session session) {
+            client = session.resolve();
+        }
+
+        // "#tag message" echoes the tag in every reply
+        if (message.startsWith("#")) {
+            int space = message.indexOf(' ');
+            String tag = space < 0 ? message.substring(1) : message.substring(1, space);
+            if (space < 0 || !TaggedClient.isValidTag(tag)) {
+                client.send(QueryService.error("Invalid tag: '" + tag + "'"));
+                return;
+            }
+            client = new TaggedClient(client, tag);
+            message = message.substring(space + 1);
+        }
+
+        if (handleImmediate(client, message)) {
+            return;
+        }
+
+        enqueue(client, message, journal.accept(message), 0, false);
+    }
+
+    private void enqueue(Client client, String message, long journalId, int resumeTicks, boolean replayed) {
+        // WebSocket clients pick their name, the transport only lets them claim a configured one
+        // when they present its token and connect from an allowed address
+        Settings.ConnectionSettings settings = config.settings().getConnectionSettings(client.getName());
+        IngressQueue.Lane lane = IngressQueue.Lane.byName(settings.lane());
+        if (lane == null) {
+            lane = classify(message);
+        }
+
+        Pending item = new Pending(client, journalId, resumeTicks, replayed, decodeAsync(message));
+        pending.offer(lane, client.getId(), settings.weight(), item);
+    }
+
+    private static IngressQueue.Lane classify(String message) {
+        if (message.regionMatches(true, 0, "command ", 0, 8)) {
+            return IngressQueue.Lane.ADMIN;
+        }
+        if (message.regionMatches(true, 0, "event ", 0, 6)) {
+            return IngressQueue.Lane.EVENT;
+        }
+        // Anything else is rejected when decoded, it should not compete with real work
+        return IngressQueue.Lane.QUERY;
     }
 
-    public void handleMessage(String message) {
+    /**
+     * Handles the verbs that never touch world state
+     *
+     * @return false if the message has to go through the tick
+     */
+    private boolean handleImmediate(Client client, String message) {
+        String[] words = message.split(" ", 2);
+        String args = words.length == 2 ? words[1] : "";
+
+        switch (words[0].toLowerCase()) {
+            case "query" -> client.send(queryService.answer(args));
+            case "resume" -> sessions.resume(client, args);
+            case "schedule", "every", "cancel" -> scheduler.handle(client, words[0].toLowerCase(), args);
+            case "subscribe", "unsubscribe", "ack" -> {
+                String[] topicArgs = args.split(" ", 2);
+                String rest = topicArgs.length == 2 ? topicArgs[1] : "";
+                if (topicArgs[0].equalsIgnoreCase(PositionStream.TOPIC)) {
+                    switch (words[0].toLowerCase()) {
+                        case "subscribe" -> positionStream.subscribe(client, rest);
+                        case "unsubscribe" -> positionStream.unsubscribe(client);
+                        default -> positionStream.ack(client, rest);
+                    }
+                } else if (topicArgs[0].equalsIgnoreCase(TelemetryStream.TOPIC)) {
+                    // Telemetry frames are complete on their own, there is nothing to acknowledge
+                    switch (words[0].toLowerCase()) {
+                        case "subscribe" -> telemetry.subscribe(client);
+                        case "unsubscribe" -> telemetry.unsubscribe(client);
+                        default -> {
+                        }
+                    }
+                } else {
+                    client.send(QueryService.error("Unknown topic: '" + topicArgs[0] + "'"));
+                }
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void disconnected(Client client) {
+        // Subscriptions stay until the session expires, the client may still resume it
+        if (client instanceof Session session) {
+            sessions.closed(session);
+        } else {
+            positionStream.disconnected(client);
+            telemetry.disconnected(client);
+        }
+    }
+
+    private CompletableFuture<WorkItem> decodeAsync(String message) {
+        return CompletableFuture.supplyAsync(() -> decode(message), preprocessor);
+    }
+
+    /**
+     * Validates and decodes a message without touching world state
+     *
+     * @return the work item to run on the server thread
+     * @throws IllegalArgumentException if the message is invalid, the message is sent back to the client
+     */
+    private WorkItem decode(String message) {
         // Get the first word of the message
         String[] words = message.split(" ", 2);
         String command = words[0];
@@ -32,13 +278,9 @@ public class MessageService {
         // Handle the command
         if (command.equalsIgnoreCase("command")) {
             if (!hasArgs) {
-                logger.error("No command provided");
-                return;
+                throw new IllegalArgumentException("No command provided");
             }
-            logger.info("Executing command: '{}'", args);
-            var source = server.getCommandSource().withLevel(4);
-            var parse = server.getCommandManager().getDispatcher().parse(args, source);
-            server.getCommandManager().execute(parse, args);
+            return new WorkItem.Command(args);
         }
 
         // Handle the event
@@ -47,15 +289,162 @@ public class MessageService {
             String eventName = eventArgs[0];
             String[] eventParams = new String[eventArgs.length - 1];
             System.arraycopy(eventArgs, 1, eventParams, 0, eventArgs.length - 1);
-            if (!eventManager.handleEvent(eventName, eventParams)) {
-                logger.error("Event '{}' not found", eventName);
+            IGameEvent event = eventManager.prepareEvent(eventName, eventParams);
+            if (event == null) {
+                throw new IllegalArgumentException("Event '" + eventName + "' not found");
             }
-        } else {
-            logger.error("Unknown command or event: '{}'", command);
+            return new WorkItem.Event(eventName, event);
+        }
+
+        throw new IllegalArgumentException("Unknown command or event: '" + command + "'");
+    }
+
+    /**
+     * Runs a drained message, or reports why it could not be decoded
+     */
+    private void run(Pending next) {
+        WorkItem item;
+        try {
+            item = next.item().join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IllegalArgumentException) {
+                logger.error(cause.getMessage());
+            } else {
+                logger.error("Failed to decode message: ", cause);
+            }
+            next.client().send(result(false, 0, cause.getMessage(), List.of()));
+            journal.complete(next.journalId());
+            return;
+        }
+        execute(item, next);
+    }
+
+    /**
+     * Runs the part of a decoded message that touches world state, on the server thread
+     */
+    private void execute(WorkItem item, Pending message) {
+        switch (item) {
+            case WorkItem.Command(String command) -> {
+                logger.debug("Executing command: '{}'", command);
+                CommandResult result = new CommandResult(server);
+                var source = server.getCommandSource().withLevel(4)
+                    .withOutput(result)
+                    .withReturnValueConsumer(result);
+                var parse = server.getCommandManager().getDispatcher().parse(command, source);
+                server.getCommandManager().execute(parse, command);
+                journal.complete(message.journalId());
+                message.client().send(result(result.successful, result.value, null, result.output));
+            }
+            case WorkItem.Event(String eventName, IGameEvent event) -> {
+                // The event manager completes the journal entry once the event ends
+                if (!eventManager.startEvent(event, message.journalId(), message.resumeTicks())) {
+                    if (message.replayed()) {
+                        // Right after a restart its player is most likely not online yet, keep it journaled
+                        logger.info("Replayed event '{}' could not start yet, retrying when a player joins",
+                            eventName);
+                        replays.add(new Replay(eventName, event, message.journalId(), message.resumeTicks()),
+                            server.getTicks());
+                        return;
+                    }
+                    logger.error("Event '{}' could not be started", eventName);
+                    journal.complete(message.journalId());
+                    message.client().send(result(false, 0, "Event '" + eventName + "' could not be started",
+                        List.of()));
+                } else {
+                    message.client().send(result(true, 1, "Event '" + eventName + "' started", List.of()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reply to a command or event: whether it succeeded, the command's result value and what it printed
+     */
+    static String result(boolean ok, int value, String message, List<String> output) {
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "result");
+        json.addProperty("ok", ok);
+        json.addProperty("value", value);
+        if (message != null) {
+            json.addProperty("message", message);
+        }
+        JsonArray lines = new JsonArray(output.size());
+        output.forEach(lines::add);
+        json.add("output", lines);
+        return json.toString();
+    }
+
+    /**
+     * Collects the outcome and feedback of one command, the feedback still reaches the console
+     */
+    private static class CommandResult implements CommandOutput, ReturnValueConsumer {
+        private final MinecraftServer server;
+        private final List<String> output = new ArrayList<>();
+        private boolean successful;
+        private int value;
+
+        private CommandResult(MinecraftServer server) {
+            this.server = server;
+        }
+
+        @Override
+        public void onResult(boolean successful, int returnValue) {
+            this.successful = successful;
+            this.value = returnValue;
+        }
+
+        @Override
+        public void sendMessage(Text message) {
+            output.add(message.getString());
+            server.sendMessage(message);
+        }
+
+        @Override
+        public boolean shouldReceiveFeedback() {
+            return true;
+        }
+
+        @Override
+        public boolean shouldTrackOutput() {
+            return true;
+        }
+
+        @Override
+        public boolean shouldBroadcastConsoleToOps() {
+            return server.shouldBroadcastConsoleToOps();
         }
     }
 
     public void tick() {
+        loadShedder.sample(server);
+
+        // Due scheduled messages go through the regular pipeline and run on a later tick
+        scheduler.tick(this::handleMessage);
+
+        replays.tick(server.getTicks(),
+            replay -> eventManager.startEvent(replay.event(), replay.journalId(), replay.resumeTicks()),
+            replay -> {
+                logger.warn("Giving up on replayed event '{}', it could not start within {} ticks", replay.eventName(),
+                    REPLAY_WINDOW_TICKS);
+                journal.complete(replay.journalId());
+            });
+
+        // Drain decoded messages by lane and connection, a message still decoding only holds back its own connection
+        pending.drain(loadShedder.scaleBudget(config.settings().drainBudget()), next -> next.item().isDone(),
+            this::run);
+
         eventManager.onServerTick();
+        if (server.getTicks() % 20 == 0) {
+            sessions.expire();
+        }
+        queryService.publish(WorldSnapshot.capture(server, eventManager));
+        telemetry.publish(server, config.settings().telemetryInterval(), pending.size(),
+            eventManager.getRunningEventCount());
+
+        // Group commit everything accepted, progressed or completed during this tick
+        journal.commit();
+        // Only now drop fired one-shot entries from the schedule file, the journal replays them from here on
+        scheduler.commit();
     }
 }
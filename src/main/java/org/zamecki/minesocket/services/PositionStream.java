@@ -0,0 +1,315 @@
+package org.zamecki.minesocket.services;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.zamecki.minesocket.config.MineSocketConfiguration;
+import org.zamecki.minesocket.config.Settings;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * Streams player positions to subscribed clients at a configurable rate, independent of the tick.
+ * Positions are quantized and every frame only carries the players that moved beyond the threshold
+ * relative to the last frame the client acknowledged, or to the last keyframe until it acknowledges a
+ * later frame. Clients that never acknowledge still get a full keyframe periodically.
+ *
+ * <p>Usage via WebSocket:
+ * <ul>
+ *     <li>"subscribe positions" - all players</li>
+ *     <li>"subscribe positions minecraft:the_nether" - players in one dimension</li>
+ *     <li>"subscribe positions minecraft:overworld 0 0 200" - players within 200 blocks of x=0 z=0</li>
+ *     <li>"ack positions &lt;frame&gt;" - acknowledges a frame, later frames are deltas against it</li>
+ *     <li>"unsubscribe positions"</li>
+ * </ul>
+ */
+public class PositionStream {
+    public static final String TOPIC = "positions";
+
+    // Positions in 1/8 of a block, rotations in 1/256 of a turn
+    private static final int POSITION_SCALE = 8;
+    private static final float ROTATION_SCALE = 256f / 360f;
+    // Frames kept per client while waiting for an acknowledgement
+    private static final int MAX_UNACKED_FRAMES = 64;
+
+    private record Quantized(String name, String dimension, int x, int y, int z, int yaw, int pitch) {
+        boolean differs(Quantized other, int positionThreshold, int rotationThreshold) {
+            return other == null
+                || !dimension.equals(other.dimension)
+                || Math.abs(x - other.x) > positionThreshold
+                || Math.abs(y - other.y) > positionThreshold
+                || Math.abs(z - other.z) > positionThreshold
+                // Yaw wraps around, 255 and 0 are one step apart
+                || Math.abs(Math.floorMod(yaw - other.yaw + 128, 256) - 128) > rotationThreshold
+                || Math.abs(pitch - other.pitch) > rotationThreshold;
+        }
+    }
+
+    /**
+     * Which players a client is interested in, radius is ignored when not positive
+     */
+    private record Interest(String dimension, double x, double z, double radius) {
+        boolean matches(WorldSnapshot.PlayerSnapshot player) {
+            if (dimension != null && !dimension.equals(player.dimension())) {
+                return false;
+            }
+            if (radius <= 0) {
+                return true;
+            }
+            double dx = player.x() - x;
+            double dz = player.z() - z;
+            return dx * dx + dz * dz <= radius * radius;
+        }
+    }
+
+    private static class Subscription {
+        private final Client client;
+        private final Interest interest;
+        private long frame;
+        private long framesSinceKeyframe;
+        private boolean keyframeRequested = true;
+        // State the client holds after applying each delta sent since the base, and the base itself:
+        // the last acknowledged frame, or the last keyframe until a later frame is acknowledged
+        private final TreeMap<Long, Map<UUID, Quantized>> sent = new TreeMap<>();
+        private long ackedFrame = -1;
+        private Map<UUID, Quantized> acked = Map.of();
+
+        private Subscription(Client client, Interest interest) {
+            this.client = client;
+            this.interest = interest;
+        }
+    }
+
+    private final MineSocketConfiguration config;
+    private final QueryService queryService;
+    private final LoadShedder loadShedder;
+    private final Map<Client, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MineSocket-PositionStream");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PositionStream(MineSocketConfiguration config, QueryService queryService, LoadShedder loadShedder) {
+        this.config = config;
+        this.queryService = queryService;
+        this.loadShedder = loadShedder;
+        scheduleNext();
+    }
+
+    public void subscribe(Client client, String args) {
+        String[] words = args.isBlank() ? new String[0] : args.trim().split(" ");
+        Interest interest;
+        try {
+            String dimension = words.length > 0 ? words[0] : null;
+            if (words.length >= 4) {
+                interest = new Interest(dimension, Double.parseDouble(words[1]), Double.parseDouble(words[2]),
+                    Double.parseDouble(words[3]));
+            } else {
+                interest = new Interest(dimension, 0, 0, 0);
+            }
+        } catch (NumberFormatException e) {
+            client.send(QueryService.error("Invalid position stream area: '" + args.trim() + "'"));
+            return;
+        }
+        subscriptions.put(client, new Subscription(client, interest));
+    }
+
+    public void unsubscribe(Client client) {
+        subscriptions.remove(client);
+    }
+
+    /**
+     * Drops every subscription made over a connection, including the tagged ones
+     */
+    public void disconnected(Client client) {
+        subscriptions.keySet().removeIf(subscriber -> subscriber.equals(client)
+            || subscriber instanceof TaggedClient tagged && tagged.delegate().equals(client));
+    }
+
+    public void ack(Client client, String args) {
+        Subscription subscription = subscriptions.get(client);
+        if (subscription == null) {
+            return;
+        }
+
+        long frame;
+        try {
+            frame = Long.parseLong(args.trim());
+        } catch (NumberFormatException e) {
+            client.send(QueryService.error("Invalid frame: '" + args.trim() + "'"));
+            return;
+        }
+
+        synchronized (subscription) {
+            Map<UUID, Quantized> state = subscription.sent.get(frame);
+            if (state == null || frame <= subscription.ackedFrame) {
+                return;
+            }
+            subscription.ackedFrame = frame;
+            subscription.acked = state;
+            subscription.sent.headMap(frame, true).clear();
+        }
+    }
+
+    /**
+     * Forces the next frame of every subscription made over a connection to be a keyframe
+     */
+    public void requestKeyframe(Client client) {
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.client.equals(client)
+                || subscription.client instanceof TaggedClient tagged && tagged.delegate().equals(client)) {
+                synchronized (subscription) {
+                    subscription.keyframeRequested = true;
+                }
+            }
+        }
+    }
+
+    private void scheduleNext() {
+        // Re-read the rate every frame so configuration reloads and load shedding apply right away
+        int rate = Math.max(1, Math.min(20, config.settings().positionStreamRate()));
+        long period = loadShedder.scaleInterval(1000 / rate);
+        scheduler.schedule(this::run, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void run() {
+        try {
+            if (!subscriptions.isEmpty()) {
+                WorldSnapshot snapshot = queryService.getSnapshot();
+                publish(snapshot, quantize(snapshot));
+            }
+        } catch (Exception e) {
+            logger.error("Error publishing position stream: ", e);
+        } finally {
+            scheduleNext();
+        }
+    }
+
+    private Map<UUID, Quantized> quantize(WorldSnapshot snapshot) {
+        Map<UUID, Quantized> state = new HashMap<>(snapshot.players().size() * 2);
+        for (WorldSnapshot.PlayerSnapshot player : snapshot.players()) {
+            state.put(player.uuid(), new Quantized(
+                player.name(),
+                player.dimension(),
+                (int) Math.round(player.x() * POSITION_SCALE),
+                (int) Math.round(player.y() * POSITION_SCALE),
+                (int) Math.round(player.z() * POSITION_SCALE),
+                Math.round(((player.yaw() % 360 + 360) % 360) * ROTATION_SCALE) & 0xFF,
+                Math.round(player.pitch() * ROTATION_SCALE)));
+        }
+        return state;
+    }
+
+    private void publish(WorldSnapshot snapshot, Map<UUID, Quantized> current) {
+        Settings settings = config.settings();
+        int positionThreshold = (int) Math.round(settings.positionStreamThreshold() * POSITION_SCALE);
+        // Rotations are only resent once they turned by more than about two degrees
+        int rotationThreshold = Math.max(1, Math.round(2 * ROTATION_SCALE));
+
+        Iterator<Subscription> iterator = subscriptions.values().iterator();
+        while (iterator.hasNext()) {
+            Subscription subscription = iterator.next();
+            if (!subscription.client.isOpen()) {
+                iterator.remove();
+                continue;
+            }
+
+            String frame;
+            synchronized (subscription) {
+                frame = encodeFrame(subscription, snapshot, current, positionThreshold, rotationThreshold,
+                    settings.positionStreamKeyframeInterval());
+            }
+            if (frame != null) {
+                subscription.client.send(TOPIC, frame);
+            }
+        }
+    }
+
+    private String encodeFrame(Subscription subscription, WorldSnapshot snapshot, Map<UUID, Quantized> current,
+                               int positionThreshold, int rotationThreshold, int keyframeInterval) {
+        boolean keyframe = subscription.keyframeRequested
+            || subscription.framesSinceKeyframe >= keyframeInterval
+            || subscription.sent.size() >= MAX_UNACKED_FRAMES;
+        Map<UUID, Quantized> base = keyframe ? Map.of() : subscription.acked;
+
+        // The state the client holds once it applies this frame
+        Map<UUID, Quantized> next = new HashMap<>();
+        JsonArray players = new JsonArray();
+        for (WorldSnapshot.PlayerSnapshot player : snapshot.players()) {
+            Quantized position = current.get(player.uuid());
+            if (position == null || !subscription.interest.matches(player)) {
+                continue;
+            }
+
+            Quantized known = base.get(player.uuid());
+            if (keyframe || position.differs(known, positionThreshold, rotationThreshold)) {
+                players.add(encodePlayer(position));
+                next.put(player.uuid(), position);
+            } else {
+                next.put(player.uuid(), known);
+            }
+        }
+
+        JsonArray removed = new JsonArray();
+        for (Map.Entry<UUID, Quantized> entry : base.entrySet()) {
+            if (!next.containsKey(entry.getKey())) {
+                removed.add(entry.getValue().name());
+            }
+        }
+
+        // Nothing changed since the acknowledged frame, skip the frame entirely
+        if (!keyframe && players.isEmpty() && removed.isEmpty()) {
+            return null;
+        }
+
+        long frame = ++subscription.frame;
+        long baseFrame = keyframe ? -1 : subscription.ackedFrame;
+        if (keyframe) {
+            // The client replaces its state, later deltas are against this keyframe until it acknowledges one
+            subscription.keyframeRequested = false;
+            subscription.framesSinceKeyframe = 0;
+            subscription.sent.clear();
+            subscription.ackedFrame = frame;
+            subscription.acked = next;
+        } else {
+            subscription.sent.put(frame, next);
+            subscription.framesSinceKeyframe++;
+        }
+
+        JsonObject json = new JsonObject();
+        json.addProperty("type", TOPIC);
+        json.addProperty("frame", frame);
+        json.addProperty("base", baseFrame);
+        json.addProperty("keyframe", keyframe);
+        json.addProperty("tick", snapshot.tick());
+        json.addProperty("scale", POSITION_SCALE);
+        json.add("players", players);
+        if (!removed.isEmpty()) {
+            json.add("removed", removed);
+        }
+        return json.toString();
+    }
+
+    // [name, dimension, x, y, z, yaw, pitch]
+    private static JsonArray encodePlayer(Quantized position) {
+        JsonArray json = new JsonArray(7);
+        json.add(position.name());
+        json.add(position.dimension());
+        json.add(position.x());
+        json.add(position.y());
+        json.add(position.z());
+        json.add(position.yaw());
+        json.add(position.pitch());
+        return json;
+    }
+}
@@ -0,0 +1,133 @@
+package org.zamecki.minesocket.services;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Answers read-only queries from the latest {@link WorldSnapshot}.
+ * The server thread publishes a new snapshot every tick, queries are answered on the
+ * calling I/O thread without locking or touching the world.
+ *
+ * <p>Usage via WebSocket:
+ * <ul>
+ *     <li>"query players" - all online players with position and health</li>
+ *     <li>"query player &lt;name&gt;" - a single player</li>
+ *     <li>"query events" - running events with their progress</li>
+ *     <li>"query load" - the current load shedding level, see {@link LoadShedder}</li>
+ * </ul>
+ */
+public class QueryService {
+    private final LoadShedder loadShedder;
+    private volatile WorldSnapshot snapshot = WorldSnapshot.EMPTY;
+
+    // Encoded answers of the current snapshot, shared by every client querying during the same tick
+    private record Encoded(WorldSnapshot source, String players, String events) {
+    }
+
+    private volatile Encoded encoded;
+
+    public QueryService(LoadShedder loadShedder) {
+        this.loadShedder = loadShedder;
+    }
+
+    public void publish(WorldSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public WorldSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the JSON answer to send back to the client
+     */
+    public String answer(String args) {
+        String[] words = args.trim().split(" ", 2);
+        String query = words[0].toLowerCase();
+
+        return switch (query) {
+            case "players" -> encoded().players();
+            case "events" -> encoded().events();
+            case "load" -> loadShedder.toJson();
+            case "player" -> {
+                if (words.length < 2) {
+                    yield error("No player name provided");
+                }
+                WorldSnapshot current = snapshot;
+                WorldSnapshot.PlayerSnapshot player = current.findPlayer(words[1].trim());
+                if (player == null) {
+                    yield error("Player '" + words[1].trim() + "' not found");
+                }
+                JsonObject json = header("player", current);
+                json.add("player", encodePlayer(player));
+                yield json.toString();
+            }
+            default -> error("Unknown query: '" + query + "'");
+        };
+    }
+
+    private Encoded encoded() {
+        WorldSnapshot current = snapshot;
+        Encoded cached = encoded;
+        if (cached != null && cached.source() == current) {
+            return cached;
+        }
+
+        // Concurrent misses may encode twice, which is cheaper than locking
+        JsonObject players = header("players", current);
+        JsonArray playerArray = new JsonArray(current.players().size());
+        for (WorldSnapshot.PlayerSnapshot player : current.players()) {
+            playerArray.add(encodePlayer(player));
+        }
+        players.add("players", playerArray);
+
+        JsonObject events = header("events", current);
+        JsonArray eventArray = new JsonArray(current.events().size());
+        for (WorldSnapshot.EventSnapshot event : current.events()) {
+            JsonObject json = new JsonObject();
+            json.addProperty("name", event.name());
+            json.addProperty("displayName", event.displayName());
+            json.addProperty("progress", event.progress());
+            json.addProperty("elapsedTicks", event.elapsedTicks());
+            json.addProperty("suspended", event.suspended());
+            json.addProperty("averageMicros", Math.round(event.averageMicros()));
+            json.addProperty("totalMillis", Math.round(event.totalMillis()));
+            eventArray.add(json);
+        }
+        events.add("events", eventArray);
+
+        cached = new Encoded(current, players.toString(), events.toString());
+        encoded = cached;
+        return cached;
+    }
+
+    private static JsonObject header(String query, WorldSnapshot snapshot) {
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "query");
+        json.addProperty("query", query);
+        json.addProperty("tick", snapshot.tick());
+        return json;
+    }
+
+    private static JsonObject encodePlayer(WorldSnapshot.PlayerSnapshot player) {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", player.name());
+        json.addProperty("uuid", player.uuid().toString());
+        json.addProperty("dimension", player.dimension());
+        json.addProperty("x", player.x());
+        json.addProperty("y", player.y());
+        json.addProperty("z", player.z());
+        json.addProperty("yaw", player.yaw());
+        json.addProperty("pitch", player.pitch());
+        json.addProperty("health", player.health());
+        json.addProperty("maxHealth", player.maxHealth());
+        return json;
+    }
+
+    static String error(String message) {
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "error");
+        json.addProperty("message", message);
+        return json.toString();
+    }
+}
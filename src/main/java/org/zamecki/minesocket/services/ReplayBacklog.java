@@ -0,0 +1,76 @@
+package org.zamecki.minesocket.services;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Replayed journal entries that could not start yet, usually because the player they target is not online
+ * right after a restart. They stay live in the journal and are retried whenever a player joins, until
+ * their window runs out.
+ *
+ * <p>Only touched by the server thread, except {@link #requestRetry()}.
+ */
+class ReplayBacklog<T> {
+    private record Waiting<T>(T item, long deadline) {
+    }
+
+    private final long windowTicks;
+    private final List<Waiting<T>> waiting = new ArrayList<>();
+    private volatile boolean retryRequested;
+
+    /**
+     * @param windowTicks ticks an entry waits for a retry to succeed before it is given up
+     */
+    ReplayBacklog(long windowTicks) {
+        this.windowTicks = windowTicks;
+    }
+
+    void add(T item, long now) {
+        waiting.add(new Waiting<>(item, now + windowTicks));
+    }
+
+    /**
+     * Retries every waiting entry on the next tick, e.g. because a player joined
+     */
+    void requestRetry() {
+        retryRequested = true;
+    }
+
+    /**
+     * Retries the waiting entries if a retry was requested and gives up those whose window ran out
+     *
+     * @param start   tries to start an entry, true once it runs
+     * @param expired receives the entries that are given up
+     */
+    void tick(long now, Predicate<T> start, Consumer<T> expired) {
+        if (waiting.isEmpty()) {
+            retryRequested = false;
+            return;
+        }
+
+        boolean retry = retryRequested;
+        retryRequested = false;
+        Iterator<Waiting<T>> iterator = waiting.iterator();
+        while (iterator.hasNext()) {
+            Waiting<T> entry = iterator.next();
+            if (retry && start.test(entry.item())) {
+                iterator.remove();
+            } else if (now >= entry.deadline()) {
+                iterator.remove();
+                expired.accept(entry.item());
+            }
+        }
+    }
+
+    int size() {
+        return waiting.size();
+    }
+
+    void clear() {
+        waiting.clear();
+        retryRequested = false;
+    }
+}
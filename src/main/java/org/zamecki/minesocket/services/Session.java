@@ -0,0 +1,223 @@
+package org.zamecki.minesocket.services;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A client that outlives its connection for a while.
+ * Every frame sent through the session gets the next sequence number, appended as a "seq" field,
+ * and is kept in a bounded ring per topic. When the connection drops, frames keep being recorded;
+ * a client that reconnects and resumes the session gets the frames it missed replayed in order.
+ */
+public final class Session implements Client {
+    public static final String REPLIES = "replies";
+
+    /**
+     * Most recent frames of one topic, the oldest are evicted once it is full
+     */
+    private static final class Ring {
+        private final long[] seqs;
+        private final String[] frames;
+        private int head;
+        private int size;
+        // Highest sequence number that no longer fits, a client behind it cannot be caught up
+        private long evicted;
+
+        private Ring(int capacity) {
+            seqs = new long[capacity];
+            frames = new String[capacity];
+        }
+
+        private void add(long seq, String frame) {
+            if (frames.length == 0) {
+                evicted = seq;
+                return;
+            }
+            int index = (head + size) % frames.length;
+            if (size == frames.length) {
+                evicted = seqs[head];
+                head = (head + 1) % frames.length;
+            } else {
+                size++;
+            }
+            seqs[index] = seq;
+            frames[index] = frame;
+        }
+
+        private void collectAfter(long seq, List<Map.Entry<Long, String>> out) {
+            for (int i = 0; i < size; i++) {
+                int index = (head + i) % frames.length;
+                if (seqs[index] > seq) {
+                    out.add(Map.entry(seqs[index], frames[index]));
+                }
+            }
+        }
+    }
+
+    private final String id;
+    private final String name;
+    // The connection the session was opened on
+    private final Client connection;
+    private final int capacity;
+    private final Map<String, Ring> rings = new HashMap<>();
+
+    // Guarded by this
+    private Client transport;
+    private long seq;
+    private long detachedAt;
+    private boolean expired;
+    // Set once this session resumed another one, everything goes to that one from then on
+    private volatile Session resumed;
+
+    Session(String id, Client connection, int capacity) {
+        this.id = id;
+        this.name = connection.getName();
+        this.connection = connection;
+        this.transport = connection;
+        this.capacity = capacity;
+    }
+
+    public String getSessionId() {
+        return id;
+    }
+
+    /**
+     * @return the session that actually receives frames for this one
+     */
+    public Session resolve() {
+        Session target = resumed;
+        return target == null ? this : target;
+    }
+
+    @Override
+    public String getId() {
+        return connection.getId();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void send(String message) {
+        send(REPLIES, message);
+    }
+
+    @Override
+    public void send(String topic, String message) {
+        Session target = resolve();
+        if (target != this) {
+            target.send(topic, message);
+            return;
+        }
+
+        synchronized (this) {
+            if (expired) {
+                return;
+            }
+            String frame = withSeq(message, ++seq);
+            rings.computeIfAbsent(topic, key -> new Ring(capacity)).add(seq, frame);
+            if (transport != null) {
+                transport.send(frame);
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        Session target = resolve();
+        synchronized (target) {
+            return !target.expired;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return connection.toString();
+    }
+
+    /**
+     * Stops sending once the connection is gone, frames are still recorded for a later resume
+     *
+     * @param closed the connection that closed, ignored if the session has moved to another one since
+     */
+    synchronized void detach(Client closed) {
+        if (transport == closed) {
+            transport = null;
+            detachedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Moves the session to a new connection and replays every recorded frame after lastSeq
+     *
+     * @return the topics that lost frames the client never got, they need a fresh snapshot
+     */
+    synchronized List<String> resume(Client newTransport, long lastSeq) {
+        List<Map.Entry<Long, String>> missed = new ArrayList<>();
+        List<String> lost = new ArrayList<>();
+        for (Map.Entry<String, Ring> entry : rings.entrySet()) {
+            entry.getValue().collectAfter(lastSeq, missed);
+            if (entry.getValue().evicted > lastSeq) {
+                lost.add(entry.getKey());
+            }
+        }
+        missed.sort(Comparator.comparingLong(Map.Entry::getKey));
+
+        transport = newTransport;
+        detachedAt = 0;
+
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "resumed");
+        json.addProperty("session", id);
+        json.addProperty("seq", seq);
+        json.addProperty("replayed", missed.size());
+        JsonArray lostTopics = new JsonArray();
+        lost.forEach(lostTopics::add);
+        json.add("lost", lostTopics);
+        newTransport.send(json.toString());
+
+        for (Map.Entry<Long, String> frame : missed) {
+            newTransport.send(frame.getValue());
+        }
+        return lost;
+    }
+
+    /**
+     * Forwards everything to the resumed session, this one is not used anymore
+     */
+    void redirectTo(Session target) {
+        resumed = target;
+    }
+
+    Client getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return true if the session was detached for longer than the grace period and is now expired
+     */
+    synchronized boolean expireIfDetached(long now, long graceMillis) {
+        if (transport == null && now - detachedAt >= graceMillis) {
+            expired = true;
+            rings.clear();
+        }
+        return expired;
+    }
+
+    // Appended last, so fields like the reply tag stay at the front of the frame
+    private static String withSeq(String message, long seq) {
+        if (!message.startsWith("{") || !message.endsWith("}")) {
+            return message;
+        }
+        String separator = message.length() > 2 ? "," : "";
+        return message.substring(0, message.length() - 1) + separator + "\"seq\":" + seq + "}";
+    }
+}
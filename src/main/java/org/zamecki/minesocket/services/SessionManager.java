@@ -0,0 +1,123 @@
+package org.zamecki.minesocket.services;
+
+import com.google.gson.JsonObject;
+import org.zamecki.minesocket.config.MineSocketConfiguration;
+import org.zamecki.minesocket.config.Settings;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Issues a session to every connection and lets a reconnecting client pick up where it left off.
+ *
+ * <p>Usage via WebSocket:
+ * <ul>
+ *     <li>on connect the server sends {"type":"session","session":"&lt;id&gt;"}</li>
+ *     <li>every frame after that carries a "seq" field</li>
+ *     <li>"resume &lt;id&gt; &lt;lastSeq&gt;" - sent first on a new connection, replays the frames after lastSeq
+ *     and moves subscriptions, scheduled messages and running replies over to the new connection</li>
+ * </ul>
+ * If frames of a topic were already evicted, the topic is listed as lost and a fresh snapshot is sent
+ * where one is available, e.g. a position keyframe.
+ */
+public class SessionManager {
+    private final MineSocketConfiguration config;
+    private final Consumer<Client> onExpired;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Consumer<Client>> snapshots = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param onExpired releases everything held for a session once it can no longer be resumed
+     */
+    public SessionManager(MineSocketConfiguration config, Consumer<Client> onExpired) {
+        this.config = config;
+        this.onExpired = onExpired;
+    }
+
+    /**
+     * Registers how to bring a client up to date on a topic it lost frames of
+     */
+    public void registerSnapshot(String topic, Consumer<Client> provider) {
+        snapshots.put(topic, provider);
+    }
+
+    public Session open(Client connection) {
+        // Unguessable, knowing the id is all it takes to resume a session
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        Session session = new Session(HexFormat.of().formatHex(bytes), connection,
+            config.settings().sessionReplayFrames());
+        sessions.put(session.getSessionId(), session);
+
+        JsonObject json = new JsonObject();
+        json.addProperty("type", "session");
+        json.addProperty("session", session.getSessionId());
+        json.addProperty("resumeSeconds", config.settings().sessionResumeSeconds());
+        connection.send(json.toString());
+        return session;
+    }
+
+    public void closed(Session session) {
+        session.resolve().detach(session.getConnection());
+    }
+
+    public void resume(Client client, String args) {
+        if (!(client instanceof Session current)) {
+            client.send(QueryService.error("Sessions can only be resumed by untagged messages"));
+            return;
+        }
+
+        String[] words = args.trim().split(" ");
+        Session previous = words.length == 2 ? sessions.get(words[0]) : null;
+        long lastSeq;
+        try {
+            lastSeq = words.length == 2 ? Long.parseLong(words[1]) : -1;
+        } catch (NumberFormatException e) {
+            lastSeq = -1;
+        }
+        if (lastSeq < 0) {
+            client.send(QueryService.error("Usage: resume <session> <lastSeq>"));
+            return;
+        }
+        if (previous == null || previous == current || !previous.isOpen()) {
+            client.send(QueryService.error("Unknown or expired session"));
+            return;
+        }
+
+        // The new connection's own session is dropped, it becomes an alias of the resumed one
+        sessions.remove(current.getSessionId());
+        current.redirectTo(previous);
+        onExpired.accept(current);
+
+        List<String> lost = previous.resume(current.getConnection(), lastSeq);
+        for (String topic : lost) {
+            Consumer<Client> snapshot = snapshots.get(topic);
+            if (snapshot != null) {
+                snapshot.accept(previous);
+            }
+        }
+    }
+
+    /**
+     * Drops the sessions that stayed detached for longer than the grace period, call periodically
+     */
+    public void expire() {
+        Settings settings = config.settings();
+        long now = System.currentTimeMillis();
+        long graceMillis = settings.sessionResumeSeconds() * 1000L;
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next();
+            if (session.expireIfDetached(now, graceMillis)) {
+                iterator.remove();
+                onExpired.accept(session);
+            }
+        }
+    }
+}
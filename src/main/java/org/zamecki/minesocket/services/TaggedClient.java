@@ -0,0 +1,59 @@
+package org.zamecki.minesocket.services;
+
+/**
+ * Wraps a client for a message sent as "#tag message", every reply to it carries the tag.
+ * This lets a client match replies to requests, and lets a gateway share one connection
+ * between many of its own clients.
+ */
+public record TaggedClient(Client delegate, String tag) implements Client {
+
+    /**
+     * Tags are echoed into JSON verbatim, so only characters that never need escaping are allowed
+     */
+    public static boolean isValidTag(String tag) {
+        if (tag.isEmpty() || tag.length() > 64) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            char c = tag.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_' && c != '.' && c != ':') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public void send(String message) {
+        delegate.send(withTag(message));
+    }
+
+    @Override
+    public void send(String topic, String message) {
+        delegate.send(topic, withTag(message));
+    }
+
+    private String withTag(String message) {
+        // Replies are JSON objects, the tag goes first so it can be read without parsing the rest
+        if (!message.startsWith("{")) {
+            return message;
+        }
+        String rest = message.substring(1);
+        return "{\"tag\":\"" + tag + "\"" + (rest.startsWith("}") ? "" : ",") + rest;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+}
@@ -0,0 +1,224 @@
+package org.zamecki.minesocket.services;
+
+import com.google.gson.JsonObject;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Publishes server performance figures to subscribed clients every few ticks, for dashboards.
+ * Everything is counted as it happens from tick, entity and chunk hooks, so a tick only pays for
+ * a few counter updates and a frame is encoded once for all subscribers.
+ *
+ * <p>Usage via WebSocket:
+ * <ul>
+ *     <li>"subscribe telemetry"</li>
+ *     <li>"unsubscribe telemetry"</li>
+ * </ul>
+ * Frames look like {"type":"telemetry","tick":1200,"mspt":{"mean":3.2,"p50":3.0,"p95":5.1,"p99":8.4,"max":12.0},
+ * "tps":20.0,"heap":{"used":512,"committed":1024,"max":4096},"queue":0,"events":1,
+ * "dimensions":{"minecraft:overworld":{"players":2,"entities":340,"chunks":625}}}, memory is in MiB.
+ */
+public class TelemetryStream {
+    public static final String TOPIC = "telemetry";
+
+    // A minute of ticks at 20 TPS
+    private static final int WINDOW_TICKS = 1200;
+    // Tick times in 1/10 ms, the last bucket collects everything from 100 ms up
+    private static final int BUCKETS_PER_MILLI = 10;
+    private static final int BUCKETS = 100 * BUCKETS_PER_MILLI + 1;
+
+    private final Set<Client> subscribers = ConcurrentHashMap.newKeySet();
+
+    // Everything below is only touched on the server thread
+    private final int[] histogram = new int[BUCKETS];
+    private final short[] window = new short[WINDOW_TICKS];
+    private final long[] windowNanos = new long[WINDOW_TICKS];
+    private int windowHead;
+    private int windowSize;
+    private long windowTotalNanos;
+    private long tickStart;
+
+    // [entities, chunks] per loaded world
+    private final Map<ServerWorld, int[]> counts = new IdentityHashMap<>();
+
+    public void subscribe(Client client) {
+        subscribers.add(client);
+    }
+
+    public void unsubscribe(Client client) {
+        subscribers.remove(client);
+    }
+
+    /**
+     * Drops every subscription made over a connection, including the tagged ones
+     */
+    public void disconnected(Client client) {
+        subscribers.removeIf(subscriber -> subscriber.equals(client)
+            || subscriber instanceof TaggedClient tagged && tagged.delegate().equals(client));
+    }
+
+    /**
+     * Forgets the counts of a world, a restarted integrated server loads new world instances
+     */
+    public void worldUnloaded(ServerWorld world) {
+        counts.remove(world);
+    }
+
+    public void tickStarted() {
+        tickStart = System.nanoTime();
+    }
+
+    public void tickEnded() {
+        if (tickStart == 0) {
+            return;
+        }
+        record(System.nanoTime() - tickStart);
+    }
+
+    /**
+     * Adds a tick that took the given time to the window
+     */
+    void record(long nanos) {
+        int bucket = (int) Math.min(BUCKETS - 1, nanos * BUCKETS_PER_MILLI / 1_000_000);
+
+        // Slide the window, the evicted tick leaves the histogram as the new one enters it
+        if (windowSize == WINDOW_TICKS) {
+            histogram[window[windowHead]]--;
+            windowTotalNanos -= windowNanos[windowHead];
+        } else {
+            windowSize++;
+        }
+        window[windowHead] = (short) bucket;
+        windowNanos[windowHead] = nanos;
+        windowHead = (windowHead + 1) % WINDOW_TICKS;
+        histogram[bucket]++;
+        windowTotalNanos += nanos;
+    }
+
+    public void entityLoaded(ServerWorld world) {
+        countsOf(world)[0]++;
+    }
+
+    public void entityUnloaded(ServerWorld world) {
+        countsOf(world)[0]--;
+    }
+
+    public void chunkLoaded(ServerWorld world) {
+        countsOf(world)[1]++;
+    }
+
+    public void chunkUnloaded(ServerWorld world) {
+        countsOf(world)[1]--;
+    }
+
+    private int[] countsOf(ServerWorld world) {
+        int[] worldCounts = counts.get(world);
+        if (worldCounts == null) {
+            worldCounts = new int[2];
+            counts.put(world, worldCounts);
+        }
+        return worldCounts;
+    }
+
+    /**
+     * Sends a frame to every subscriber once per interval, called at the end of every tick
+     *
+     * @param queueDepth messages waiting to be executed
+     * @param events     events currently running
+     */
+    public void publish(MinecraftServer server, int interval, int queueDepth, int events) {
+        if (subscribers.isEmpty() || server.getTicks() % interval != 0) {
+            return;
+        }
+
+        String frame = encode(server, queueDepth, events);
+        subscribers.removeIf(subscriber -> !subscriber.isOpen());
+        for (Client subscriber : subscribers) {
+            subscriber.send(TOPIC, frame);
+        }
+    }
+
+    private String encode(MinecraftServer server, int queueDepth, int events) {
+        JsonObject json = new JsonObject();
+        json.addProperty("type", TOPIC);
+        json.addProperty("tick", server.getTicks());
+
+        json.add("mspt", mspt());
+        // The server never ticks faster than 20 times a second, slower once a tick takes longer than 50 ms
+        json.addProperty("tps", round(1000.0 / Math.max(50.0, meanMillis())));
+
+        Runtime runtime = Runtime.getRuntime();
+        JsonObject heap = new JsonObject();
+        heap.addProperty("used", (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+        heap.addProperty("committed", runtime.totalMemory() >> 20);
+        heap.addProperty("max", runtime.maxMemory() >> 20);
+        json.add("heap", heap);
+
+        json.addProperty("queue", queueDepth);
+        json.addProperty("events", events);
+
+        JsonObject dimensions = new JsonObject();
+        for (ServerWorld world : server.getWorlds()) {
+            int[] worldCounts = counts.getOrDefault(world, new int[2]);
+            JsonObject dimension = new JsonObject();
+            dimension.addProperty("players", world.getPlayers().size());
+            dimension.addProperty("entities", worldCounts[0]);
+            dimension.addProperty("chunks", worldCounts[1]);
+            dimensions.add(world.getRegistryKey().getValue().toString(), dimension);
+        }
+        json.add("dimensions", dimensions);
+        return json.toString();
+    }
+
+    private double meanMillis() {
+        return windowSize == 0 ? 0 : windowTotalNanos / (double) windowSize / 1_000_000.0;
+    }
+
+    /**
+     * @return tick time figures over the window, in ms
+     */
+    JsonObject mspt() {
+        // The histogram only knows buckets, the slowest tick is taken from the exact times
+        long maxNanos = 0;
+        for (int i = 0; i < windowSize; i++) {
+            maxNanos = Math.max(maxNanos, windowNanos[i]);
+        }
+        double max = maxNanos / 1_000_000.0;
+
+        JsonObject mspt = new JsonObject();
+        mspt.addProperty("mean", round(meanMillis()));
+        mspt.addProperty("p50", percentile(0.50, max));
+        mspt.addProperty("p95", percentile(0.95, max));
+        mspt.addProperty("p99", percentile(0.99, max));
+        mspt.addProperty("max", round(max));
+        return mspt;
+    }
+
+    /**
+     * @return the upper bound of the bucket the given share of ticks in the window falls into, in ms,
+     * but never more than the slowest tick, which also stands in for the open ended last bucket
+     */
+    private double percentile(double share, double max) {
+        if (windowSize == 0) {
+            return 0;
+        }
+        int rank = Math.max(1, (int) Math.ceil(share * windowSize));
+        int seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= rank && bucket < BUCKETS - 1) {
+                return round(Math.min(max, (bucket + 1) / (double) BUCKETS_PER_MILLI));
+            }
+        }
+        return round(max);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,329 @@
+package org.zamecki.minesocket.services;
+
+import org.zamecki.minesocket.config.MineSocketConfiguration;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.zamecki.minesocket.ModData.logger;
+
+/**
+ * Listener on a Unix domain socket for clients running on the same host, e.g. bots next to the server.
+ * It speaks the same messages as the WebSocket server, framed as a 4 byte big endian length followed
+ * by that many bytes of UTF-8, in both directions. Every connection has its own virtual threads,
+ * one blocking on reads and one writing queued replies.
+ *
+ * <p>Clients on the socket are named "unix", so their lane and weight are set under [connections.unix].
+ */
+public class UnixSocketService {
+    public static final String CLIENT_NAME = "unix";
+
+    // Frames larger than this close the connection, a length that big is most likely garbage
+    private static final int MAX_FRAME_SIZE = 1 << 20;
+    // Replies queued per connection before it counts as stalled and is closed
+    private static final int MAX_QUEUED_FRAMES = 4096;
+
+    private final MineSocketConfiguration config;
+    private final MessageHandler messageHandler;
+    private final AuditLog auditLog;
+    private final AtomicLong nextConnection = new AtomicLong();
+    private final Set<UnixConnection> connections = ConcurrentHashMap.newKeySet();
+    private ServerSocketChannel channel;
+    private Path path;
+    // Whether the Minecraft server is up, the socket only listens while it is
+    private boolean started;
+
+    public UnixSocketService(MineSocketConfiguration config, MessageHandler messageHandler, AuditLog auditLog) {
+        this.config = config;
+        this.messageHandler = messageHandler;
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * Starts listening if a socket path is configured, does nothing if it already listens there
+     */
+    public synchronized void start() {
+        started = true;
+        String configured = config.settings().unixSocket();
+        Path target = configured.isBlank() ? null : Path.of(configured).toAbsolutePath();
+        if (channel != null && channel.isOpen() && target != null && target.equals(path)) {
+            return;
+        }
+
+        close();
+        if (target == null) {
+            return;
+        }
+
+        try {
+            removeStaleSocket(target);
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(target));
+            channel = server;
+            path = target;
+            Thread.ofVirtual().name("MineSocket-Unix-Accept").start(() -> accept(server));
+            logger.info("Unix socket listening on {}", target);
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.error("Failed to listen on unix socket {}: {}", target, e.getMessage());
+        }
+    }
+
+    /**
+     * Applies a changed socket path, only while the server is running
+     */
+    public synchronized void reload() {
+        if (started) {
+            start();
+        }
+    }
+
+    public synchronized void stop() {
+        started = false;
+        close();
+    }
+
+    /**
+     * Stops listening and closes every accepted connection, none of them delivers messages afterwards
+     */
+    private void close() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Error closing unix socket {}: {}", path, e.getMessage());
+        }
+        channel = null;
+        path = null;
+
+        for (UnixConnection connection : connections) {
+            connection.close("server stopping");
+            connection.release();
+        }
+    }
+
+    /**
+     * Deletes a socket file left behind by a crash, which would make the bind fail.
+     * Anything else at the path is left alone, so a mistyped path cannot delete a real file.
+     *
+     * @throws IOException if the path holds something other than a stale socket
+     */
+    private static void removeStaleSocket(Path target) throws IOException {
+        if (!Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class,
+            LinkOption.NOFOLLOW_LINKS);
+        if (!attributes.isOther()) {
+            throw new IOException(target + " already exists and is not a socket");
+        }
+
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(target)).close();
+        } catch (ConnectException e) {
+            // Nobody accepts on it anymore
+            Files.delete(target);
+            return;
+        }
+        throw new IOException("another process is already listening on " + target);
+    }
+
+    private void accept(ServerSocketChannel server) {
+        while (server.isOpen()) {
+            try {
+                SocketChannel socket = server.accept();
+                UnixConnection connection = new UnixConnection(socket, nextConnection.incrementAndGet());
+                synchronized (this) {
+                    // Stopped while this connection was being accepted
+                    if (channel != server) {
+                        socket.close();
+                        return;
+                    }
+                    connections.add(connection);
+                }
+                auditLog.opened(connection);
+                connection.client = messageHandler.connected(connection);
+                Thread.ofVirtual().name("MineSocket-Unix-Read-" + connection.number)
+                    .start(() -> connection.readLoop());
+                Thread.ofVirtual().name("MineSocket-Unix-Write-" + connection.number)
+                    .start(() -> connection.writeLoop());
+            } catch (IOException e) {
+                if (server.isOpen()) {
+                    logger.error("Error accepting unix socket connection: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private class UnixConnection implements Client {
+        // Queued after the last frame, compared by identity so no message can be mistaken for it
+        private static final String CLOSE = new String("close");
+
+        private final SocketChannel socket;
+        private final long number;
+        private final BlockingQueue<String> outbound = new ArrayBlockingQueue<>(MAX_QUEUED_FRAMES);
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean open = true;
+        // What the message handler made of this connection, set before its threads start
+        private volatile Client client;
+
+        private UnixConnection(SocketChannel socket, long number) {
+            this.socket = socket;
+            this.number = number;
+        }
+
+        @Override
+        public String getId() {
+            return "unix#" + number;
+        }
+
+        @Override
+        public String getName() {
+            return CLIENT_NAME;
+        }
+
+        @Override
+        public void send(String message) {
+            if (open && !outbound.offer(message)) {
+                logger.warn("Closing unix socket client {}: it stopped reading its replies", getId());
+                close("too many queued replies");
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public String toString() {
+            return getId();
+        }
+
+        private void readLoop() {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            String reason = "closed by client";
+            try {
+                while (open) {
+                    header.clear();
+                    readFully(header);
+                    int length = header.getInt(0);
+                    if (length < 0 || length > MAX_FRAME_SIZE) {
+                        reason = "invalid frame length " + length;
+                        break;
+                    }
+
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    readFully(payload);
+                    if (!open) {
+                        break;
+                    }
+                    String message = new String(payload.array(), StandardCharsets.UTF_8);
+                    auditLog.received(this, message);
+                    messageHandler.handleMessage(client, message);
+                }
+            } catch (EOFException e) {
+                // Peer closed the connection between frames
+            } catch (IOException e) {
+                reason = e.getMessage();
+            } finally {
+                close(reason);
+                release();
+            }
+        }
+
+        /**
+         * Hands the connection back to the message handler, once, whichever side closed it first
+         */
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                connections.remove(this);
+                messageHandler.disconnected(client);
+            }
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (socket.read(buffer) < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+
+        private void writeLoop() {
+            try {
+                while (true) {
+                    String message = outbound.take();
+                    if (message == CLOSE) {
+                        break;
+                    }
+
+                    byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+                    ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+                    frame.putInt(bytes.length).put(bytes).flip();
+                    while (frame.hasRemaining()) {
+                        socket.write(frame);
+                    }
+                }
+            } catch (IOException e) {
+                close(e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void close(String reason) {
+            synchronized (this) {
+                if (!open) {
+                    return;
+                }
+                open = false;
+            }
+
+            // Nothing is read anymore, which also ends the read loop if it is blocked on the socket
+            try {
+                socket.shutdownInput();
+            } catch (IOException ignored) {
+            }
+
+            // Let the write loop finish what is queued, unless the queue is what overflowed
+            if (!outbound.offer(CLOSE)) {
+                outbound.clear();
+                outbound.offer(CLOSE);
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+            auditLog.closed(this, 0, reason);
+        }
+    }
+}
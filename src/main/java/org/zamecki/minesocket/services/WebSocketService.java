@@ -1,20 +1,23 @@
 package org.zamecki.minesocket.services;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.handshake.ClientHandshake;
-import org.java_websocket.server.WebSocketServer;
 import org.zamecki.minesocket.config.MineSocketConfiguration;
+import org.zamecki.minesocket.config.Settings;
 
 import java.net.InetSocketAddress;
-import java.net.BindException;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.zamecki.minesocket.ModData.logger;
 
 public class WebSocketService {
+    private static final int START_TIMEOUT_SECONDS = 5;
+
     private final MineSocketConfiguration config;
-    private final MessageService messageService;
+    private final MessageHandler messageHandler;
+    private final AuditLog auditLog;
     private InetSocketAddress address;
     private CustomWebSocketServer wsServer;
 
@@ -25,256 +28,297 @@ public class WebSocketService {
 
     private volatile ServerState state = ServerState.STOPPED;
 
-    public WebSocketService(MineSocketConfiguration config, MessageService messageService) {
+    // Pending lifecycle transitions, completed from the WebSocket threads
+    private CompletableFuture<ServerState> startFuture;
+    private CompletableFuture<ServerState> stopFuture;
+
+    public WebSocketService(MineSocketConfiguration config, MessageHandler messageHandler, AuditLog auditLog) {
         this.config = config;
-        this.messageService = messageService;
-        this.address = new InetSocketAddress(config.host, config.port);
+        this.messageHandler = messageHandler;
+        this.auditLog = auditLog;
+        Settings settings = config.settings();
+        this.address = new InetSocketAddress(settings.host(), settings.port());
     }
 
     public boolean isRunning() {
         return state == ServerState.RUNNING;
     }
 
+    public ServerState getState() {
+        return state;
+    }
+
     /**
-     * Starts the WebSocket server
+     * Starts the WebSocket server without waiting for it to bind
      *
-     * @return true if started successfully, false otherwise
+     * @return future completed with {@link ServerState#RUNNING} once listening,
+     * or with {@link ServerState#STOPPED} if the server failed to start
      */
-    public synchronized boolean tryToStart() {
+    public synchronized CompletableFuture<ServerState> tryToStart() {
+        if (state == ServerState.STARTING) {
+            return startFuture;
+        }
         if (state != ServerState.STOPPED) {
             logger.error("Cannot start WebSocket server: current state is {}", state);
-            return false;
+            return CompletableFuture.completedFuture(state);
         }
 
-        try {
-            state = ServerState.STARTING;
-            wsServer = new CustomWebSocketServer(address);
-            wsServer.setReuseAddr(true); // Allows address reuse immediately
-            wsServer.setConnectionLostTimeout(30); // Timeout to detect lost connections
-
-            // Start in a separate thread
-            Thread serverThread = new Thread(() -> {
-                try {
-                    wsServer.run();
-                } catch (Exception e) {
-                    logger.error("WebSocket server thread error: ", e);
-                    state = ServerState.STOPPED;
-                }
-            });
-
-            serverThread.setDaemon(true);
-            serverThread.start();
-
-            // Wait up to 5 seconds for the server to start
-            for (int i = 0; i < 50; i++) {
-                if (wsServer.isRunning()) {
-                    state = ServerState.RUNNING;
-                    logger.info("WebSocket server started on {}:{}", address.getHostString(), address.getPort());
-                    return true;
-                }
-                Thread.sleep(100);
-            }
-
-            // If not started after timeout, try to close
-            if (wsServer != null) {
-                wsServer.stop();
-                wsServer = null;
-            }
+        state = ServerState.STARTING;
+        startFuture = new CompletableFuture<>();
 
-            state = ServerState.STOPPED;
-            logger.error("Failed to start WebSocket server: timeout");
-            return false;
+        try {
+            CustomWebSocketServer server = new CustomWebSocketServer(address);
+            wsServer = server;
+            server.start();
 
+            // Give up if the server did not report back in time
+            CompletableFuture.delayedExecutor(START_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .execute(() -> onStartTimeout(server));
         } catch (Exception e) {
+            logger.error("Failed to start WebSocket server: ", e);
+            wsServer = null;
             state = ServerState.STOPPED;
-            if (e instanceof BindException) {
-                logger.error("Failed to start WebSocket server: port {} is already in use", address.getPort());
-            } else {
-                logger.error("Failed to start WebSocket server: ", e);
-            }
-            return false;
+            startFuture.complete(ServerState.STOPPED);
         }
+
+        return startFuture;
     }
 
     /**
-     * Stops the WebSocket server with timeout
+     * Stops the WebSocket server in the background
      *
-     * @return true if initiated shutdown process successfully, false otherwise
+     * @return future completed with {@link ServerState#STOPPED} once the server has closed,
+     * or with the current state if it cannot be stopped right now
      */
-    public synchronized boolean tryToStop() {
+    public synchronized CompletableFuture<ServerState> tryToStop() {
+        if (state == ServerState.STOPPING) {
+            return stopFuture;
+        }
         if (state != ServerState.RUNNING) {
-            if (state == ServerState.STOPPED) {
-                return true; // Already stopped
+            if (state != ServerState.STOPPED) {
+                logger.warn("Cannot stop WebSocket server: current state is {}", state);
             }
-            logger.warn("Cannot stop WebSocket server: current state is {}", state);
-            return false;
+            return CompletableFuture.completedFuture(state);
         }
 
         if (wsServer == null) {
             state = ServerState.STOPPED;
-            return true;
+            return CompletableFuture.completedFuture(state);
         }
 
-        try {
-            state = ServerState.STOPPING;
-
-            // Create shutdown thread
-            Thread shutdownThread = new Thread(() -> {
-                try {
-                    // Use a latch to wait for the shutdown
-                    CountDownLatch closeLatch = new CountDownLatch(1);
-                    wsServer.setCloseLatch(closeLatch);
-
-                    // Start the shutdown process
-                    wsServer.stop(1000);
-
-                    // Wait up to 5 seconds for the shutdown
-                    boolean closed = closeLatch.await(5, TimeUnit.SECONDS);
-
-                    synchronized (WebSocketService.this) {
-                        if (!closed) {
-                            logger.warn("WebSocket server did not close gracefully within timeout");
-                        } else {
-                            logger.info("WebSocket server closed gracefully");
-                        }
-
-                        wsServer = null;
-                        state = ServerState.STOPPED;
-                        logger.info("WebSocket server stopped");
-                    }
-                } catch (Exception e) {
-                    logger.error("Error stopping WebSocket server: ", e);
-                    // Still consider the server as stopped
-                    synchronized (WebSocketService.this) {
-                        wsServer = null;
-                        state = ServerState.STOPPED;
-                    }
-                }
-            }, "WebSocket-Shutdown-Thread");
-
-            shutdownThread.setDaemon(true);
-            shutdownThread.start();
-
-            // Return immediately while shutdown happens in background
-            return true;
-        } catch (Exception e) {
-            logger.error("Error initiating WebSocket server shutdown: ", e);
-            // Still consider the server as stopped
-            wsServer = null;
-            state = ServerState.STOPPED;
-            return false;
-        }
+        state = ServerState.STOPPING;
+        stopFuture = new CompletableFuture<>();
+        CustomWebSocketServer server = wsServer;
+
+        Thread shutdownThread = new Thread(() -> {
+            try {
+                server.stop(1000);
+                logger.info("WebSocket server closed gracefully");
+            } catch (Exception e) {
+                logger.error("Error stopping WebSocket server: ", e);
+            }
+
+            // Consider the server as stopped either way
+            synchronized (WebSocketService.this) {
+                wsServer = null;
+                state = ServerState.STOPPED;
+                logger.info("WebSocket server stopped");
+                stopFuture.complete(ServerState.STOPPED);
+            }
+        }, "WebSocket-Shutdown-Thread");
+
+        shutdownThread.setDaemon(true);
+        shutdownThread.start();
+
+        return stopFuture;
     }
 
     /**
-     * Reloads the server with new configuration
+     * Reloads the server with new configuration.
+     * Only rebinds when the host or port changed, in that case the new listener is bound
+     * before the old one is drained so clients can reconnect without downtime.
+     *
+     * @return future completed with the state after the reload has been applied, or completed exceptionally
+     * if the new address could not be bound, in which case the previous listener keeps running
      */
-    public synchronized boolean tryToReload() {
-        this.address = new InetSocketAddress(config.host, config.port);
-
-        // First try to stop the server
-        boolean stopped = tryToStop();
+    public synchronized CompletableFuture<ServerState> tryToReload() {
+        Settings settings = config.settings();
+        InetSocketAddress newAddress = new InetSocketAddress(settings.host(), settings.port());
 
-        // Wait a moment to ensure the port is released
-        try {
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        if (newAddress.equals(address)) {
+            logger.info("WebSocket address unchanged, keeping existing connections");
+            return CompletableFuture.completedFuture(state);
         }
 
-        // Try to start again
-        boolean started = tryToStart();
+        if (state != ServerState.RUNNING || wsServer == null) {
+            // Nothing is bound yet, the next start will use the new address
+            this.address = newAddress;
+            return CompletableFuture.completedFuture(state);
+        }
 
-        return stopped && started;
+        try {
+            CustomWebSocketServer replacement = new CustomWebSocketServer(newAddress);
+            replacement.setReplacing(wsServer);
+            replacement.start();
+            logger.info("Rebinding WebSocket server from {}:{} to {}:{}", address.getHostString(), address.getPort(),
+                newAddress.getHostString(), newAddress.getPort());
+            return replacement.bindFuture;
+        } catch (Exception e) {
+            logger.error("Failed to rebind WebSocket server: ", e);
+            return CompletableFuture.failedFuture(e);
+        }
     }
 
     /**
-     * Custom WebSocketServer implementation for better control
+     * Called from the WebSocket thread once a listener is bound
      */
-    private class CustomWebSocketServer extends WebSocketServer {
-        private volatile ServerState internalState;
-        private CountDownLatch closeLatch;
+    private synchronized void onServerStarted(CustomWebSocketServer server) {
+        CustomWebSocketServer previous = server.replacing;
+        if (previous != null) {
+            server.replacing = null;
+            promote(server, previous);
+        } else if (wsServer == server && state == ServerState.STARTING) {
+            state = ServerState.RUNNING;
+            logger.info("WebSocket server started on {}:{}", address.getHostString(), address.getPort());
+            startFuture.complete(ServerState.RUNNING);
+        } else {
+            // Timed out or stopped while binding
+            drain(server);
+        }
+        server.bindFuture.complete(state);
+    }
 
-        public CustomWebSocketServer(InetSocketAddress address) {
-            super(address);
-            this.internalState = ServerState.STOPPED;
+    /**
+     * Called from the WebSocket thread when a listener could not be bound
+     */
+    private synchronized void onServerFailed(CustomWebSocketServer server, Exception cause) {
+        if (server.replacing != null) {
+            logger.error("Failed to rebind WebSocket server to {}:{}, keeping previous listener on {}:{}",
+                server.getAddress().getHostString(), server.getAddress().getPort(), address.getHostString(),
+                address.getPort());
+            server.replacing = null;
+            server.bindFuture.completeExceptionally(cause);
+            return;
         }
 
-        public void setCloseLatch(CountDownLatch latch) {
-            this.closeLatch = latch;
-            this.internalState = ServerState.STOPPING;
+        if (wsServer == server && state == ServerState.STARTING) {
+            wsServer = null;
+            state = ServerState.STOPPED;
+            startFuture.complete(ServerState.STOPPED);
+        } else if (wsServer == server && state == ServerState.RUNNING) {
+            wsServer = null;
+            state = ServerState.STOPPED;
         }
+        server.bindFuture.complete(state);
+    }
 
-        public boolean isRunning() {
-            return internalState == ServerState.RUNNING;
+    private synchronized void onStartTimeout(CustomWebSocketServer server) {
+        if (wsServer != server || state != ServerState.STARTING) {
+            return;
         }
 
-        @Override
-        public void onOpen(WebSocket conn, ClientHandshake handshake) {
-            String clientId = conn.getRemoteSocketAddress().toString();
-            logger.info("New connection from {}", clientId);
+        logger.error("Failed to start WebSocket server: timeout");
+        drain(server);
+        wsServer = null;
+        state = ServerState.STOPPED;
+        startFuture.complete(ServerState.STOPPED);
+    }
+
+    /**
+     * Promotes a replacement listener and drains the previous one
+     */
+    private void promote(CustomWebSocketServer replacement, CustomWebSocketServer previous) {
+        if (wsServer != previous || state != ServerState.RUNNING) {
+            // The service was stopped or reloaded again while binding, discard this listener
+            drain(replacement);
+            return;
         }
 
-        @Override
-        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-            String clientId = conn.getRemoteSocketAddress().toString();
-            logger.info("Closed connection to {}: code={}, reason={}, remote={}",
-                clientId, code, reason, remote);
+        wsServer = replacement;
+        address = replacement.getAddress();
+        logger.info("WebSocket server now listening on {}:{}", address.getHostString(), address.getPort());
+        drain(previous);
+    }
+
+    /**
+     * Closes a server that is no longer the active listener without blocking the caller
+     */
+    private void drain(CustomWebSocketServer server) {
+        Thread drainThread = new Thread(() -> {
+            try {
+                server.stop(1000);
+                logger.info("Previous WebSocket listener on {}:{} drained",
+                    server.getAddress().getHostString(), server.getAddress().getPort());
+            } catch (Exception e) {
+                logger.error("Error draining previous WebSocket listener: ", e);
+            }
+        }, "WebSocket-Drain-Thread");
+
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    /**
+     * Listener that checks clients against the mod configuration and audits them
+     */
+    private class CustomWebSocketServer extends ClientSocketServer {
+        // Completed with the service state once this listener has bound or failed to,
+        // or exceptionally if it was meant to replace a running listener and failed to bind
+        private final CompletableFuture<ServerState> bindFuture = new CompletableFuture<>();
+        private CustomWebSocketServer replacing;
+
+        public CustomWebSocketServer(InetSocketAddress address) {
+            super(address, messageHandler, "WebSocket server");
         }
 
-        @Override
-        public void onMessage(WebSocket conn, String message) {
-            String clientId = conn.getRemoteSocketAddress().toString();
-            logger.info("Received message from {}: {}", clientId, message);
-            messageService.handleMessage(message);
+        public void setReplacing(CustomWebSocketServer previous) {
+            this.replacing = previous;
         }
 
         @Override
-        public void onError(WebSocket conn, Exception ex) {
-            String clientId = conn != null ? conn.getRemoteSocketAddress().toString() : "unknown";
-
-            if (ex instanceof BindException) {
-                logger.error("Port {} is already in use", address.getPort());
-                this.internalState = ServerState.STOPPED;
-            } else {
-                logger.error("Error on connection to {}: {}", clientId, ex.getMessage());
+        protected boolean admit(WebSocket conn, ClientHandshake handshake, String name) {
+            auditLog.opened(conn.getRemoteSocketAddress());
+            InetSocketAddress remote = conn.getRemoteSocketAddress();
+            if (ClientIdentity.isReserved(name)) {
+                // Those lanes belong to the other transports
+                logger.warn("Refusing connection from {} as '{}': the name is reserved", remote, name);
+                conn.close(CloseFrame.POLICY_VALIDATION, "'" + name + "' is a reserved name");
+                return false;
             }
-
-            if (conn != null) {
-                conn.close();
+            // The name picks the lane and weight, only let clients the configuration allows claim it
+            Settings.ConnectionSettings settings = config.settings().getConnectionSettings(name);
+            String token = ClientIdentity.token(handshake.getFieldValue("Authorization"),
+                handshake.getResourceDescriptor());
+            if (!settings.admits(token, remote == null ? null : remote.getAddress())) {
+                logger.warn("Refusing connection from {} as '{}': wrong token or address not allowed", remote, name);
+                conn.close(CloseFrame.POLICY_VALIDATION, "Not allowed to connect as '" + name + "'");
+                return false;
             }
+            return true;
         }
 
         @Override
-        public void onStart() {
-            this.internalState = ServerState.RUNNING;
-            logger.info("WebSocket server is starting...");
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+            auditLog.closed(conn.getRemoteSocketAddress(), code, reason);
+            super.onClose(conn, code, reason, remote);
         }
 
         @Override
-        public void start() {
-            this.internalState = ServerState.STARTING;
-            super.start();
+        public void onMessage(WebSocket conn, String message) {
+            if (conn.getAttachment() != null) {
+                auditLog.received(conn.getRemoteSocketAddress(), message);
+            }
+            super.onMessage(conn, message);
         }
 
         @Override
-        public void stop() throws InterruptedException {
-            this.internalState = ServerState.STOPPING;
-            super.stop();
-            if (closeLatch != null) {
-                closeLatch.countDown();
-            }
-            this.internalState = ServerState.STOPPED;
+        protected void onBound() {
+            onServerStarted(this);
         }
 
         @Override
-        public void stop(int timeout) throws InterruptedException {
-            this.internalState = ServerState.STOPPING;
-            super.stop(timeout);
-            if (closeLatch != null) {
-                closeLatch.countDown();
-            }
-            this.internalState = ServerState.STOPPED;
+        protected void onBindFailed(Exception cause) {
+            onServerFailed(this, cause);
         }
     }
 }
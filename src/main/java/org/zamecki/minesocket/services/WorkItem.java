@@ -0,0 +1,15 @@
+package org.zamecki.minesocket.services;
+
+import org.zamecki.minesocket.event.IGameEvent;
+
+/**
+ * A fully decoded message, produced off the server thread and executed on the next tick
+ */
+public sealed interface WorkItem {
+
+    record Command(String command) implements WorkItem {
+    }
+
+    record Event(String eventName, IGameEvent event) implements WorkItem {
+    }
+}
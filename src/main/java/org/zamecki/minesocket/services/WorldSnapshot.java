@@ -0,0 +1,56 @@
+package org.zamecki.minesocket.services;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.zamecki.minesocket.event.EventManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Immutable copy of the world state clients can query, captured by the server thread once per tick
+ */
+public record WorldSnapshot(int tick, List<PlayerSnapshot> players, List<EventSnapshot> events) {
+    public static final WorldSnapshot EMPTY = new WorldSnapshot(0, List.of(), List.of());
+
+    public record PlayerSnapshot(String name, UUID uuid, String dimension, double x, double y, double z,
+                                 float yaw, float pitch, float health, float maxHealth) {
+    }
+
+    /**
+     * @param averageMicros recent average cost of one tick of the event
+     * @param totalMillis   time spent ticking the event since it started
+     */
+    public record EventSnapshot(String name, String displayName, float progress, int elapsedTicks,
+                                boolean suspended, double averageMicros, double totalMillis) {
+    }
+
+    /**
+     * Copies the current state, must be called on the server thread
+     */
+    public static WorldSnapshot capture(MinecraftServer server, EventManager eventManager) {
+        List<ServerPlayerEntity> online = server.getPlayerManager().getPlayerList();
+        List<PlayerSnapshot> players = new ArrayList<>(online.size());
+        for (ServerPlayerEntity player : online) {
+            players.add(new PlayerSnapshot(
+                player.getName().getString(),
+                player.getUuid(),
+                player.getEntityWorld().getRegistryKey().getValue().toString(),
+                player.getX(), player.getY(), player.getZ(),
+                player.getYaw(), player.getPitch(),
+                player.getHealth(), player.getMaxHealth()));
+        }
+
+        return new WorldSnapshot(server.getTicks(), List.copyOf(players), eventManager.snapshotEvents());
+    }
+
+    public PlayerSnapshot findPlayer(String name) {
+        for (PlayerSnapshot player : players) {
+            if (player.name().equalsIgnoreCase(name)) {
+                return player;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,55 @@
+package org.zamecki.minesocket.config;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConfigTest {
+    @TempDir
+    Path directory;
+
+    private static class TestConfig extends Config {
+        private double ratio;
+        private int count;
+
+        TestConfig(Path path, String toml) {
+            super(path, toml);
+        }
+
+        @Override
+        public void load() {
+            ratio = this.getOrAdd("ratio", 0.5, "A ratio", value -> value > 0);
+            count = this.getOrAdd("count", 3, "A count");
+        }
+    }
+
+    @Test
+    void keepsValuesOfTheRightType() {
+        TestConfig config = new TestConfig(directory.resolve("test.toml"), "ratio = 2.0\ncount = 4\n");
+        assertEquals(2.0, config.ratio);
+        assertEquals(4, config.count);
+    }
+
+    @Test
+    void fallsBackToTheDefaultForTheWrongType() throws Exception {
+        Path file = directory.resolve("test.toml");
+        TestConfig config = new TestConfig(file, "ratio = 2\ncount = \"three\"\n");
+        assertEquals(0.5, config.ratio);
+        assertEquals(3, config.count);
+
+        // The file keeps the wrong values so they can still be fixed
+        String written = Files.readString(file);
+        assertTrue(written.contains("count = \"three\""), written);
+    }
+
+    @Test
+    void fallsBackToTheDefaultForAnInvalidValue() {
+        TestConfig config = new TestConfig(directory.resolve("test.toml"), "ratio = -1.0\n");
+        assertEquals(0.5, config.ratio);
+    }
+}
@@ -0,0 +1,36 @@
+package org.zamecki.minesocket.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SettingsTest {
+    private static final InetAddress LOCAL = InetAddress.getLoopbackAddress();
+
+    @Test
+    void unrestrictedNamesAdmitAnyone() {
+        assertTrue(Settings.ConnectionSettings.DEFAULT.admits(null, LOCAL));
+        assertTrue(new Settings.ConnectionSettings("admin", 4, "", List.of()).admits("anything", LOCAL));
+    }
+
+    @Test
+    void requiresTheToken() {
+        Settings.ConnectionSettings settings = new Settings.ConnectionSettings("admin", 4, "secret", List.of());
+        assertTrue(settings.admits("secret", LOCAL));
+        assertFalse(settings.admits("wrong", LOCAL));
+        assertFalse(settings.admits(null, LOCAL));
+    }
+
+    @Test
+    void requiresAnAllowedAddress() throws Exception {
+        Settings.ConnectionSettings settings = new Settings.ConnectionSettings("admin", 4, "",
+            List.of(LOCAL.getHostAddress()));
+        assertTrue(settings.admits(null, LOCAL));
+        assertFalse(settings.admits(null, InetAddress.getByName("192.0.2.1")));
+        assertFalse(settings.admits(null, null));
+    }
+}
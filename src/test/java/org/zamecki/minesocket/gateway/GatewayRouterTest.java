@@ -0,0 +1,308 @@
+package org.zamecki.minesocket.gateway;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.zamecki.minesocket.services.Client;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Runs the router against two fake backends over loopback WebSockets
+ */
+class GatewayRouterTest {
+    @TempDir
+    Path directory;
+
+    private FakeBackend lobby;
+    private FakeBackend survival;
+    private ScheduledExecutorService scheduler;
+    private GatewayRouter router;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        lobby = FakeBackend.start();
+        survival = FakeBackend.start();
+        Path file = directory.resolve("gateway.toml");
+        Files.writeString(file, """
+            default_backend = "lobby"
+            upstream_connections = 2
+            reconnect_delay_millis = 50
+
+            [backends]
+            lobby = "ws://127.0.0.1:%d"
+            survival = "ws://127.0.0.1:%d"
+            """.formatted(lobby.getPort(), survival.getPort()));
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        router = new GatewayRouter(new GatewayConfiguration(file), scheduler);
+        await(() -> lobby.getConnections().size() == 2 && survival.getConnections().size() == 2);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        router.close();
+        scheduler.shutdownNow();
+        lobby.stop(100);
+        survival.stop(100);
+    }
+
+    @Test
+    void routesByServerPrefix() {
+        TestClient client = new TestClient("a");
+
+        router.handleMessage(client, "query players");
+        await(() -> client.frames.size() == 1);
+        assertEquals("lobby", client.frame(0).get("server").getAsString());
+        assertEquals("query players", client.frame(0).get("message").getAsString());
+
+        router.handleMessage(client, "@survival query players");
+        await(() -> client.frames.size() == 2);
+        assertEquals("survival", client.frame(1).get("server").getAsString());
+        assertEquals(1, survival.received.size());
+
+        router.handleMessage(client, "@* command say hi");
+        await(() -> client.frames.size() == 4);
+        assertEquals(List.of("lobby", "survival"), List.of(client.frame(2).get("server").getAsString(),
+            client.frame(3).get("server").getAsString()).stream().sorted().toList());
+
+        router.handleMessage(client, "@nether query players");
+        await(() -> client.frames.size() == 5);
+        assertEquals("error", client.frame(4).get("type").getAsString());
+    }
+
+    @Test
+    void rewritesTags() {
+        TestClient client = new TestClient("a");
+        router.handleMessage(client, "#mine @survival query players");
+        await(() -> client.frames.size() == 1);
+
+        // The backend sees a gateway tag, the client gets its own tag back in place of it
+        String forwarded = survival.received.getFirst();
+        assertTrue(forwarded.startsWith("#gw"), forwarded);
+        assertEquals("query players", forwarded.substring(forwarded.indexOf(' ') + 1));
+        JsonObject reply = client.frame(0);
+        assertEquals("mine", reply.get("tag").getAsString());
+        assertEquals("survival", reply.get("server").getAsString());
+        assertEquals("echo", reply.get("type").getAsString());
+    }
+
+    @Test
+    void dropsUntaggedBackendFrames() throws Exception {
+        TestClient client = new TestClient("a");
+        router.handleMessage(client, "query players");
+        await(() -> client.frames.size() == 1);
+
+        // Neither the session frames sent on connect nor a stray error reach a client
+        lobby.broadcast("{\"type\":\"error\",\"message\":\"not for anyone\"}");
+        router.handleMessage(client, "query again");
+        await(() -> client.frames.size() == 2);
+        Thread.sleep(50);
+        assertEquals(2, client.frames.size());
+        assertEquals("echo", client.frame(1).get("type").getAsString());
+    }
+
+    @Test
+    void keepsStreamVerbsOnTheSubscriptionsConnection() {
+        TestClient client = new TestClient("a");
+        router.handleMessage(client, "subscribe positions");
+        await(() -> lobby.subscriptions.size() == 1);
+        String tag = lobby.subscriptions.keySet().iterator().next();
+
+        // Alternate over the pool, every ack and the unsubscribe must still reach the same connection
+        for (int i = 0; i < 4; i++) {
+            router.handleMessage(client, "ack positions " + i);
+            router.handleMessage(client, "query players");
+        }
+        router.handleMessage(client, "unsubscribe positions");
+        await(() -> lobby.subscriptions.isEmpty());
+        assertEquals(List.of(), lobby.misrouted);
+        assertEquals(4, lobby.received.stream().filter(message -> message.startsWith("#" + tag + " ack")).count());
+    }
+
+    @Test
+    void subscribesAgainAfterReconnect() {
+        TestClient client = new TestClient("a");
+        router.handleMessage(client, "#pos subscribe positions");
+        await(() -> lobby.subscriptions.size() == 1);
+        String tag = lobby.subscriptions.keySet().iterator().next();
+
+        lobby.publish();
+        await(() -> client.frames.size() == 1);
+        assertEquals("positions", client.frame(0).get("type").getAsString());
+        assertEquals("pos", client.frame(0).get("tag").getAsString());
+
+        // The backend drops everything, the gateway reconnects and makes the subscription again
+        lobby.subscriptions.clear();
+        for (WebSocket connection : lobby.getConnections()) {
+            connection.close();
+        }
+        await(() -> lobby.subscriptions.containsKey(tag) && lobby.getConnections().size() == 2);
+
+        lobby.publish();
+        await(() -> client.frames.size() == 2);
+        assertEquals("positions", client.frame(1).get("type").getAsString());
+        assertEquals("pos", client.frame(1).get("tag").getAsString());
+    }
+
+    @Test
+    void unsubscribesWhenTheClientLeaves() {
+        TestClient client = new TestClient("a");
+        router.handleMessage(client, "subscribe positions");
+        router.handleMessage(client, "@survival subscribe positions");
+        await(() -> lobby.subscriptions.size() == 1 && survival.subscriptions.size() == 1);
+
+        client.open = false;
+        router.disconnected(client);
+        await(() -> lobby.subscriptions.isEmpty() && survival.subscriptions.isEmpty());
+        assertFalse(lobby.received.isEmpty());
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for the gateway");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted");
+            }
+        }
+    }
+
+    private static class TestClient implements Client {
+        private final List<String> frames = new CopyOnWriteArrayList<>();
+        private final String id;
+        private volatile boolean open = true;
+
+        private TestClient(String id) {
+            this.id = id;
+        }
+
+        private JsonObject frame(int index) {
+            return JsonParser.parseString(frames.get(index)).getAsJsonObject();
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public void send(String message) {
+            frames.add(message);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+    }
+
+    /**
+     * Answers like a MineSocket server: a session frame on connect, tagged replies to tagged messages,
+     * and position frames to subscriptions
+     */
+    private static class FakeBackend extends WebSocketServer {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final List<String> received = new CopyOnWriteArrayList<>();
+        private final Map<String, WebSocket> subscriptions = new ConcurrentHashMap<>();
+        // Stream messages that arrived over another connection than their subscription
+        private final List<String> misrouted = new CopyOnWriteArrayList<>();
+        private long seq;
+
+        private FakeBackend() {
+            super(new InetSocketAddress("127.0.0.1", 0));
+            setReuseAddr(true);
+        }
+
+        private static FakeBackend start() throws InterruptedException {
+            FakeBackend backend = new FakeBackend();
+            backend.start();
+            if (!backend.started.await(5, TimeUnit.SECONDS)) {
+                fail("Fake backend did not start");
+            }
+            return backend;
+        }
+
+        private synchronized void publish() {
+            for (Map.Entry<String, WebSocket> subscription : subscriptions.entrySet()) {
+                JsonObject json = new JsonObject();
+                json.addProperty("tag", subscription.getKey());
+                json.addProperty("type", "positions");
+                json.addProperty("seq", ++seq);
+                subscription.getValue().send(json.toString());
+            }
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            conn.send("{\"type\":\"session\",\"session\":\"" + conn.hashCode() + "\",\"resumeSeconds\":60}");
+        }
+
+        @Override
+        public synchronized void onMessage(WebSocket conn, String message) {
+            received.add(message);
+            int space = message.indexOf(' ');
+            String tag = message.substring(1, space);
+            String rest = message.substring(space + 1);
+
+            if (rest.startsWith("subscribe ")) {
+                subscriptions.put(tag, conn);
+                return;
+            }
+            if (rest.startsWith("unsubscribe ") || rest.startsWith("ack ")) {
+                WebSocket subscribed = rest.startsWith("ack ") ? subscriptions.get(tag) : subscriptions.remove(tag);
+                if (subscribed != conn) {
+                    misrouted.add(message);
+                }
+                return;
+            }
+
+            JsonObject json = new JsonObject();
+            json.addProperty("tag", tag);
+            json.addProperty("type", "echo");
+            json.addProperty("message", rest);
+            json.addProperty("seq", ++seq);
+            conn.send(json.toString());
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+        }
+
+        @Override
+        public void onStart() {
+            started.countDown();
+        }
+    }
+}
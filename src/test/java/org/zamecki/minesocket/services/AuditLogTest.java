@@ -0,0 +1,67 @@
+package org.zamecki.minesocket.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.zamecki.minesocket.config.MineSocketConfiguration;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuditLogTest {
+    @TempDir
+    Path directory;
+
+    private static List<String> awaitLines(Path file, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (Files.exists(file)) {
+                List<String> lines = Files.readAllLines(file);
+                if (lines.size() >= count) {
+                    return lines;
+                }
+            }
+            Thread.sleep(20);
+        }
+        return Files.exists(file) ? Files.readAllLines(file) : List.of();
+    }
+
+    private AuditLog auditLog(Path file) throws Exception {
+        Path settings = directory.resolve("minesocket.toml");
+        Files.writeString(settings, "audit_file = true\naudit_sample_rate = 0\n");
+        return new AuditLog(new MineSocketConfiguration(settings), file);
+    }
+
+    @Test
+    void writesEveryEntryEvenWhenTheRingIsFull() throws Exception {
+        Path file = directory.resolve("audit.log");
+        AuditLog auditLog = auditLog(file);
+
+        // Far more than the ring holds, faster than the audit thread can log them
+        int count = 50_000;
+        for (int i = 0; i < count; i++) {
+            auditLog.received("client", "message " + i);
+        }
+
+        List<String> lines = awaitLines(file, count);
+        assertEquals(count, lines.size());
+        assertTrue(lines.getLast().endsWith("message " + (count - 1)), lines.getLast());
+    }
+
+    @Test
+    void keepsEveryEntryOnOneLine() throws Exception {
+        Path file = directory.resolve("audit.log");
+        AuditLog auditLog = auditLog(file);
+
+        auditLog.received("client", "hello\n2024-01-01T00:00:00Z MESSAGE admin forged\\r");
+        auditLog.closed("client", 1000, "bye\r\nCLOSE forged");
+
+        List<String> lines = awaitLines(file, 2);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).endsWith("hello\\n2024-01-01T00:00:00Z MESSAGE admin forged\\\\r"), lines.get(0));
+        assertTrue(lines.get(1).endsWith("code=1000, reason=bye\\r\\nCLOSE forged"), lines.get(1));
+    }
+}
@@ -0,0 +1,135 @@
+package org.zamecki.minesocket.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.zamecki.minesocket.config.MineSocketConfiguration;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpServiceTest {
+    @TempDir
+    Path directory;
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    // Messages the handler left unanswered, like ones still waiting for the server thread
+    private final List<Client> pending = new CopyOnWriteArrayList<>();
+    private MineSocketConfiguration config;
+    private Path file;
+    private HttpService service;
+    private int port;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        file = directory.resolve("minesocket.toml");
+        Files.writeString(file, "host = \"127.0.0.1\"\nhttp_port = " + port + "\n");
+        config = new MineSocketConfiguration(file);
+
+        service = new HttpService(config, new MessageHandler() {
+            @Override
+            public void handleMessage(Client client, String message) {
+                switch (message) {
+                    case "later" -> pending.add(client);
+                    case "fail" -> throw new IllegalStateException("handler failed");
+                    default -> client.send("{\"type\":\"echo\",\"message\":\"" + message + "\"}");
+                }
+            }
+
+            @Override
+            public void disconnected(Client client) {
+            }
+        }, new AuditLog(config), 200);
+        service.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.stop();
+    }
+
+    private HttpResponse<String> post(String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + path))
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        return http.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void answersWithTheReply() throws Exception {
+        HttpResponse<String> response = post("/message", "hello");
+        assertEquals(200, response.statusCode());
+        assertEquals("{\"type\":\"echo\",\"message\":\"hello\"}", response.body());
+
+        response = post("/batch", "one\ntwo\n");
+        assertEquals(200, response.statusCode());
+        assertEquals("[{\"type\":\"echo\",\"message\":\"one\"},{\"type\":\"echo\",\"message\":\"two\"}]",
+            response.body());
+    }
+
+    @Test
+    void reportsMessagesStillQueuedAtTheTimeout() throws Exception {
+        HttpResponse<String> response = post("/message", "later");
+        assertEquals(202, response.statusCode());
+        assertEquals("{\"type\":\"queued\"}", response.body());
+
+        response = post("/batch", "one\nlater");
+        assertEquals(202, response.statusCode());
+        assertEquals("[{\"type\":\"echo\",\"message\":\"one\"},{\"type\":\"queued\"}]", response.body());
+
+        // Running it afterwards does not answer the request a second time
+        assertEquals(2, pending.size());
+        pending.getFirst().send("{\"type\":\"late\"}");
+        assertFalse(pending.getFirst().isOpen());
+    }
+
+    @Test
+    void answersHandlerFailuresWithAnError() throws Exception {
+        HttpResponse<String> response = post("/message", "fail");
+        assertEquals(500, response.statusCode());
+        assertTrue(response.body().contains("\"type\":\"error\""), response.body());
+
+        // The connection is still usable afterwards
+        assertEquals(200, post("/message", "hello").statusCode());
+    }
+
+    @Test
+    void checksCallersAgainstTheHttpConnection() throws Exception {
+        Files.writeString(file, "host = \"127.0.0.1\"\nhttp_port = " + port + "\n\n"
+            + "[connections.http]\ntoken = \"secret\"\n");
+        config.reload();
+
+        HttpResponse<String> response = post("/message", "hello");
+        assertEquals(401, response.statusCode());
+        assertEquals("Bearer", response.headers().firstValue("WWW-Authenticate").orElse(null));
+        assertEquals(401, post("/message?token=wrong", "hello").statusCode());
+
+        assertEquals(200, post("/message?token=secret", "hello").statusCode());
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/message"))
+            .header("Authorization", "Bearer secret")
+            .POST(HttpRequest.BodyPublishers.ofString("hello"))
+            .build();
+        assertEquals(200, http.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        Files.writeString(file, "host = \"127.0.0.1\"\nhttp_port = " + port + "\n\n"
+            + "[connections.http]\naddresses = [\"192.0.2.1\"]\n");
+        config.reload();
+        assertEquals(403, post("/message", "hello").statusCode());
+    }
+}
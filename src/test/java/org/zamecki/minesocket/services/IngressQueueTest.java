@@ -0,0 +1,81 @@
+package org.zamecki.minesocket.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IngressQueueTest {
+    private static List<String> drain(IngressQueue<String> queue, int budget) {
+        List<String> drained = new ArrayList<>();
+        queue.drain(budget, item -> true, drained::add);
+        return drained;
+    }
+
+    private static void offer(IngressQueue<String> queue, String flow, int weight, int count) {
+        for (int i = 0; i < count; i++) {
+            queue.offer(IngressQueue.Lane.QUERY, flow, weight, flow + i);
+        }
+    }
+
+    @Test
+    void drainsHigherLanesFirst() {
+        IngressQueue<String> queue = new IngressQueue<>();
+        queue.offer(IngressQueue.Lane.QUERY, "a", 1, "query");
+        queue.offer(IngressQueue.Lane.EVENT, "a", 1, "event");
+        queue.offer(IngressQueue.Lane.ADMIN, "b", 1, "admin");
+
+        assertEquals(List.of("admin", "event", "query"), drain(queue, 10));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void sharesALaneAcrossConnections() {
+        IngressQueue<String> queue = new IngressQueue<>();
+        offer(queue, "chatty", 1, 20);
+        offer(queue, "quiet", 1, 2);
+
+        // The chatty flow gets one quantum, then the quiet one is served before it continues
+        assertEquals(List.of("chatty0", "chatty1", "chatty2", "chatty3", "quiet0", "quiet1", "chatty4", "chatty5"),
+            drain(queue, 8));
+        assertEquals(14, queue.size());
+    }
+
+    @Test
+    void splitsByWeight() {
+        IngressQueue<String> queue = new IngressQueue<>();
+        offer(queue, "heavy", 3, 40);
+        offer(queue, "light", 1, 40);
+
+        List<String> drained = drain(queue, 32);
+        assertEquals(24, drained.stream().filter(item -> item.startsWith("heavy")).count());
+        assertEquals(8, drained.stream().filter(item -> item.startsWith("light")).count());
+    }
+
+    @Test
+    void keepsOrderWithinAConnectionAcrossDrains() {
+        IngressQueue<String> queue = new IngressQueue<>();
+        offer(queue, "a", 1, 6);
+
+        List<String> drained = new ArrayList<>(drain(queue, 3));
+        offer(queue, "b", 1, 1);
+        drained.addAll(drain(queue, 10));
+        assertEquals(List.of("a0", "a1", "a2", "a3", "b0", "a4", "a5"), drained);
+    }
+
+    @Test
+    void itemsThatAreNotReadyOnlyHoldBackTheirOwnConnection() {
+        IngressQueue<String> queue = new IngressQueue<>();
+        offer(queue, "blocked", 1, 2);
+        offer(queue, "free", 1, 2);
+
+        List<String> drained = new ArrayList<>();
+        assertEquals(2, queue.drain(10, item -> !item.startsWith("blocked"), drained::add));
+        assertEquals(List.of("free0", "free1"), drained);
+        assertEquals(2, queue.size());
+
+        assertEquals(List.of("blocked0", "blocked1"), drain(queue, 10));
+    }
+}
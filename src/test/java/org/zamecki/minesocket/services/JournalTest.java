@@ -0,0 +1,119 @@
+package org.zamecki.minesocket.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysUnfinishedEntriesInAcceptanceOrder() {
+        Journal journal = new Journal(directory, true);
+        assertEquals(List.of(), journal.open());
+        long first = journal.accept("event firework @a 10");
+        long second = journal.accept("command say hi");
+        long third = journal.accept("event firework @a 20");
+        journal.progress(third, 7);
+        journal.complete(second);
+        journal.commit();
+        journal.close();
+
+        Journal reopened = new Journal(directory, true);
+        List<Journal.Entry> entries = reopened.open();
+        assertEquals(List.of(
+            new Journal.Entry(first, "event firework @a 10", 0),
+            new Journal.Entry(third, "event firework @a 20", 7)), entries);
+
+        // Ids keep counting up, a replayed id is never handed out again
+        assertTrue(reopened.accept("command say again") > third);
+        reopened.close();
+    }
+
+    @Test
+    void disabledJournalRecordsNothing() {
+        Journal journal = new Journal(directory, false);
+        assertEquals(List.of(), journal.open());
+        journal.accept("command say hi");
+        journal.commit();
+        journal.close();
+
+        assertEquals(List.of(), new Journal(directory, true).open());
+    }
+
+    @Test
+    void rollsWithMoreThanOneSegmentOfLiveEntries() throws Exception {
+        Journal journal = new Journal(directory, true);
+        journal.open();
+
+        // About 3 MiB of unfinished messages, several times the usual segment size
+        String payload = "x".repeat(Journal.MAX_RECORD_SIZE - 100);
+        int count = 3 * (1 << 20) / payload.length();
+        for (int i = 0; i < count; i++) {
+            journal.accept(i + " " + payload);
+            // Commit in small groups, so segments fill up and roll with everything still live
+            if (i % 4 == 3) {
+                journal.commit();
+            }
+        }
+        journal.commit();
+        journal.close();
+
+        // Compaction deleted the older segments once their entries were copied over
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+
+        List<Journal.Entry> entries = new Journal(directory, true).open();
+        assertEquals(count, entries.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + " " + payload, entries.get(i).message());
+        }
+    }
+
+    @Test
+    void skipsMessagesOverTheRecordLimit() {
+        Journal journal = new Journal(directory, true);
+        journal.open();
+        journal.accept("x".repeat(Journal.MAX_RECORD_SIZE));
+        long small = journal.accept("command say hi");
+        journal.commit();
+        journal.close();
+
+        assertEquals(List.of(new Journal.Entry(small, "command say hi", 0)), new Journal(directory, true).open());
+    }
+
+    @Test
+    void skippedMessagesStayOutOfCompactedSegments() throws Exception {
+        Journal journal = new Journal(directory, true);
+        journal.open();
+        journal.accept("x".repeat(Journal.MAX_RECORD_SIZE));
+        long small = journal.accept("command say hi");
+        journal.commit();
+
+        // Fill the segment with completed messages until it rolls, compaction copies only what is live
+        String payload = "y".repeat(Journal.MAX_RECORD_SIZE - 100);
+        for (int i = 0; i < 40; i++) {
+            journal.complete(journal.accept(payload));
+            journal.commit();
+        }
+        journal.close();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = files.toList();
+            assertEquals(1, segments.size());
+            assertTrue(segments.getFirst().getFileName().toString().compareTo("segment-00000002.log") >= 0);
+            // Nothing close to the oversized message made it into the segment
+            assertTrue(Files.size(segments.getFirst()) <= 1 << 20);
+        }
+        assertEquals(List.of(new Journal.Entry(small, "command say hi", 0)), new Journal(directory, true).open());
+    }
+}
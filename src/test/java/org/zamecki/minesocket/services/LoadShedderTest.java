@@ -0,0 +1,91 @@
+package org.zamecki.minesocket.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.zamecki.minesocket.config.MineSocketConfiguration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LoadShedderTest {
+    @TempDir
+    Path directory;
+
+    private LoadShedder shedder;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path file = directory.resolve("minesocket.toml");
+        Files.writeString(file, """
+            load_elevated_mspt = 40
+            load_critical_mspt = 50
+            load_recover_ticks = 10
+            """);
+        shedder = new LoadShedder(new MineSocketConfiguration(file));
+    }
+
+    private void sample(double mspt, int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            shedder.sample(mspt);
+        }
+    }
+
+    @Test
+    void raisesTheLevelRightAway() {
+        sample(10, 1);
+        assertEquals(LoadShedder.Level.NORMAL, shedder.getLevel());
+        sample(45, 1);
+        assertEquals(LoadShedder.Level.ELEVATED, shedder.getLevel());
+        sample(55, 1);
+        assertEquals(LoadShedder.Level.CRITICAL, shedder.getLevel());
+
+        // Back to normal one level at a time, then straight from normal to critical
+        sample(10, 20);
+        assertEquals(LoadShedder.Level.NORMAL, shedder.getLevel());
+        sample(80, 1);
+        assertEquals(LoadShedder.Level.CRITICAL, shedder.getLevel());
+    }
+
+    @Test
+    void recoversOneLevelAtATimeAfterTheRecoverTicks() {
+        sample(60, 1);
+        sample(10, 9);
+        assertEquals(LoadShedder.Level.CRITICAL, shedder.getLevel());
+        sample(10, 1);
+        assertEquals(LoadShedder.Level.ELEVATED, shedder.getLevel());
+        sample(10, 9);
+        assertEquals(LoadShedder.Level.ELEVATED, shedder.getLevel());
+        sample(10, 1);
+        assertEquals(LoadShedder.Level.NORMAL, shedder.getLevel());
+    }
+
+    @Test
+    void doesNotFlapAroundAThreshold() {
+        sample(41, 1);
+        // Dipping below the threshold for less than the recover ticks keeps the level
+        for (int i = 0; i < 5; i++) {
+            sample(39, 9);
+            sample(41, 1);
+        }
+        assertEquals(LoadShedder.Level.ELEVATED, shedder.getLevel());
+        sample(39, 10);
+        assertEquals(LoadShedder.Level.NORMAL, shedder.getLevel());
+    }
+
+    @Test
+    void scalesWorkWithTheLevel() {
+        assertEquals(100, shedder.scaleBudget(100));
+        assertEquals(50, shedder.scaleInterval(50));
+        sample(45, 1);
+        assertEquals(50, shedder.scaleBudget(100));
+        assertEquals(100, shedder.scaleInterval(50));
+        sample(55, 1);
+        assertEquals(25, shedder.scaleBudget(100));
+        assertEquals(200, shedder.scaleInterval(50));
+        assertEquals(1, shedder.scaleBudget(1));
+    }
+}
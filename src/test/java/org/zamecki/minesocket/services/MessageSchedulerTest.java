@@ -0,0 +1,169 @@
+package org.zamecki.minesocket.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageSchedulerTest {
+    @TempDir
+    Path directory;
+
+    private MessageScheduler scheduler() {
+        return new MessageScheduler(directory.resolve("schedule.dat"), Runnable::run);
+    }
+
+    private static List<String> tick(MessageScheduler scheduler, int ticks) {
+        List<String> dispatched = new ArrayList<>();
+        for (int i = 0; i < ticks; i++) {
+            scheduler.tick((client, message) -> dispatched.add(message));
+        }
+        return dispatched;
+    }
+
+    @Test
+    void parsesDurations() {
+        assertEquals(5, MessageScheduler.parseDuration("5"));
+        assertEquals(5, MessageScheduler.parseDuration("5t"));
+        assertEquals(600, MessageScheduler.parseDuration("30s"));
+        assertEquals(6000, MessageScheduler.parseDuration("5m"));
+        assertEquals(72000, MessageScheduler.parseDuration("1h"));
+        assertEquals(-1, MessageScheduler.parseDuration(""));
+        assertEquals(-1, MessageScheduler.parseDuration("-1s"));
+        assertEquals(-1, MessageScheduler.parseDuration("soon"));
+        assertEquals(-1, MessageScheduler.parseDuration("99999999h"));
+    }
+
+    @Test
+    void runsOnceAndRepeating() {
+        MessageScheduler scheduler = scheduler();
+        RecordingClient client = new RecordingClient("a");
+        scheduler.handle(client, "schedule", "2t command say once");
+        scheduler.handle(client, "every", "3t command say again");
+
+        assertEquals(List.of(), tick(scheduler, 1));
+        assertEquals(List.of("command say once"), tick(scheduler, 1));
+        assertEquals(List.of("command say again"), tick(scheduler, 1));
+        assertEquals(List.of("command say again", "command say again"), tick(scheduler, 6));
+    }
+
+    @Test
+    void savedEntriesSurviveARestart() {
+        MessageScheduler scheduler = scheduler();
+        RecordingClient client = new RecordingClient("a");
+        // Multi-byte characters right up to the size limit
+        String large = "command say " + "ç€".repeat((MessageScheduler.MAX_MESSAGE_SIZE - 12) / 5);
+        scheduler.handle(client, "schedule", "10t " + large);
+        scheduler.handle(client, "every", "4t command say again");
+        tick(scheduler, 2);
+        scheduler.save();
+
+        MessageScheduler restored = scheduler();
+        restored.load();
+        // Remaining delays are kept, 8 ticks for the large one and 2 for the repeating one
+        assertEquals(List.of(), tick(restored, 1));
+        assertEquals(List.of("command say again"), tick(restored, 1));
+        assertEquals(List.of("command say again", large), tick(restored, 6));
+    }
+
+    @Test
+    void firedEntriesLeaveTheFileOnCommit() {
+        MessageScheduler scheduler = scheduler();
+        RecordingClient client = new RecordingClient("a");
+        scheduler.handle(client, "schedule", "1t command say once");
+        scheduler.save();
+        assertEquals(List.of("command say once"), tick(scheduler, 1));
+
+        // Until the journal holds the dispatched message the file still has the entry
+        MessageScheduler crashed = scheduler();
+        crashed.load();
+        assertEquals(List.of("command say once"), tick(crashed, 1));
+
+        scheduler.commit();
+        MessageScheduler restored = scheduler();
+        restored.load();
+        assertEquals(List.of(), tick(restored, 2));
+    }
+
+    @Test
+    void rejectsMessagesOverTheSizeLimit() {
+        MessageScheduler scheduler = scheduler();
+        RecordingClient client = new RecordingClient("a");
+        scheduler.handle(client, "schedule", "1t " + "x".repeat(MessageScheduler.MAX_MESSAGE_SIZE + 1));
+        assertEquals("error", client.lastType());
+        assertEquals(List.of(), tick(scheduler, 2));
+    }
+
+    @Test
+    void onlyTheOwnerCanCancel() {
+        MessageScheduler scheduler = scheduler();
+        RecordingClient owner = new RecordingClient("owner");
+        RecordingClient other = new RecordingClient("other");
+        scheduler.handle(owner, "every", "1t command say hi");
+        long id = owner.last().get("id").getAsLong();
+
+        scheduler.handle(other, "cancel", String.valueOf(id));
+        String foreign = other.frames.getLast();
+        scheduler.handle(other, "cancel", "12345");
+        // Indistinguishable from an id that does not exist
+        assertEquals(other.frames.getLast().replace("12345", String.valueOf(id)), foreign);
+        assertEquals(List.of("command say hi"), tick(scheduler, 1));
+
+        // The same connection may cancel through a tagged message
+        scheduler.handle(new TaggedClient(owner, "t1"), "cancel", String.valueOf(id));
+        assertEquals("cancelled", owner.lastType());
+        assertEquals(List.of(), tick(scheduler, 3));
+    }
+
+    @Test
+    void aResumedSessionKeepsOwnership() {
+        MessageScheduler scheduler = scheduler();
+        Session first = new Session("s1", new RecordingClient("a"), 16);
+        Session second = new Session("s2", new RecordingClient("b"), 16);
+        scheduler.handle(first, "every", "1t command say hi");
+        second.redirectTo(first);
+
+        scheduler.handle(second, "cancel", "1");
+        assertEquals(List.of(), tick(scheduler, 2));
+    }
+
+    @Test
+    void aReconnectingClientCanCancel() {
+        MessageScheduler scheduler = scheduler();
+        scheduler.handle(new RecordingClient("a"), "every", "1t command say hi");
+
+        // A new connection under the same name, e.g. after a reconnect or another HTTP request
+        RecordingClient reconnected = new RecordingClient("a");
+        scheduler.handle(reconnected, "cancel", "1");
+        assertEquals("cancelled", reconnected.lastType());
+        assertEquals(List.of(), tick(scheduler, 2));
+    }
+
+    @Test
+    void restoredEntriesKeepTheirOwner() {
+        MessageScheduler scheduler = scheduler();
+        scheduler.handle(new RecordingClient("a"), "every", "1t command say hi");
+        scheduler.handle(new RecordingClient("a"), "every", "1t command say bye");
+        scheduler.save();
+
+        MessageScheduler restored = scheduler();
+        restored.load();
+        RecordingClient other = new RecordingClient("b");
+        restored.handle(other, "cancel", "1");
+        assertEquals("error", other.lastType());
+        RecordingClient owner = new RecordingClient("a");
+        restored.handle(owner, "cancel", "1");
+        assertEquals("cancelled", owner.lastType());
+
+        // The console may cancel anything
+        assertTrue(restored.cancel(2));
+        assertFalse(restored.cancel(2));
+        assertEquals(List.of(), tick(restored, 2));
+    }
+}
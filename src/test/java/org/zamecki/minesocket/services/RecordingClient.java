@@ -0,0 +1,43 @@
+package org.zamecki.minesocket.services;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Client that keeps every frame it is sent, for asserting on replies
+ */
+class RecordingClient implements Client {
+    final List<String> frames = new CopyOnWriteArrayList<>();
+    private final String id;
+    boolean open = true;
+
+    RecordingClient(String id) {
+        this.id = id;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void send(String message) {
+        frames.add(message);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    JsonObject last() {
+        return JsonParser.parseString(frames.getLast()).getAsJsonObject();
+    }
+
+    String lastType() {
+        return last().get("type").getAsString();
+    }
+}
@@ -0,0 +1,127 @@
+package org.zamecki.minesocket.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReplayBacklogTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * Stands in for a FireworkEvent aimed at one player, it only starts while that player is online
+     */
+    private record PlayerEvent(Journal.Entry entry, String player) {
+        static PlayerEvent of(Journal.Entry entry) {
+            return new PlayerEvent(entry, entry.message().split(" ")[2]);
+        }
+    }
+
+    private final Set<String> online = new HashSet<>();
+    private final List<PlayerEvent> started = new ArrayList<>();
+
+    private boolean start(PlayerEvent event) {
+        if (!online.contains(event.player())) {
+            return false;
+        }
+        started.add(event);
+        return true;
+    }
+
+    /**
+     * Replays a journal like the message service does right after a restart, with nobody online yet
+     */
+    private ReplayBacklog<PlayerEvent> replay(Journal journal, long window) {
+        ReplayBacklog<PlayerEvent> backlog = new ReplayBacklog<>(window);
+        for (Journal.Entry entry : journal.open()) {
+            PlayerEvent event = PlayerEvent.of(entry);
+            if (!start(event)) {
+                backlog.add(event, 0);
+            }
+        }
+        return backlog;
+    }
+
+    @Test
+    void startsAReplayedPlayerEventOnceThePlayerJoins() {
+        Journal journal = new Journal(directory, true);
+        journal.open();
+        long id = journal.accept("event FireworkEvent Steve 200 5");
+        journal.progress(id, 50);
+        journal.commit();
+        journal.close();
+
+        Journal restarted = new Journal(directory, true);
+        ReplayBacklog<PlayerEvent> backlog = replay(restarted, 6000);
+        assertEquals(1, backlog.size());
+
+        // Ticks without anyone joining leave it waiting, still journaled
+        for (long tick = 1; tick < 100; tick++) {
+            backlog.tick(tick, this::start, expired -> restarted.complete(expired.entry().id()));
+        }
+        restarted.commit();
+        assertEquals(1, backlog.size());
+
+        // Someone else joining does not help, Steve does
+        online.add("Alex");
+        backlog.requestRetry();
+        backlog.tick(100, this::start, expired -> restarted.complete(expired.entry().id()));
+        assertEquals(List.of(), started);
+
+        online.add("Steve");
+        backlog.requestRetry();
+        backlog.tick(101, this::start, expired -> restarted.complete(expired.entry().id()));
+        assertEquals(0, backlog.size());
+        assertEquals(List.of(new PlayerEvent(new Journal.Entry(id, "event FireworkEvent Steve 200 5", 50), "Steve")),
+            started);
+        restarted.close();
+    }
+
+    @Test
+    void keepsWaitingEventsJournaledAcrossAnotherRestart() {
+        Journal journal = new Journal(directory, true);
+        journal.open();
+        long id = journal.accept("event FireworkEvent Steve 200 5");
+        journal.commit();
+        journal.close();
+
+        Journal restarted = new Journal(directory, true);
+        ReplayBacklog<PlayerEvent> backlog = replay(restarted, 6000);
+        backlog.tick(1, this::start, expired -> restarted.complete(expired.entry().id()));
+        restarted.close();
+
+        assertEquals(List.of(new Journal.Entry(id, "event FireworkEvent Steve 200 5", 0)),
+            new Journal(directory, true).open());
+    }
+
+    @Test
+    void givesUpOnceTheWindowRunsOut() {
+        Journal journal = new Journal(directory, true);
+        journal.open();
+        journal.accept("event FireworkEvent Steve 200 5");
+        journal.commit();
+        journal.close();
+
+        Journal restarted = new Journal(directory, true);
+        ReplayBacklog<PlayerEvent> backlog = replay(restarted, 100);
+        List<PlayerEvent> expired = new ArrayList<>();
+        backlog.tick(99, this::start, expired::add);
+        assertEquals(List.of(), expired);
+        backlog.tick(100, this::start, event -> {
+            expired.add(event);
+            restarted.complete(event.entry().id());
+        });
+        assertEquals(1, expired.size());
+        assertEquals(0, backlog.size());
+        restarted.close();
+
+        assertEquals(List.of(), new Journal(directory, true).open());
+    }
+}
@@ -0,0 +1,121 @@
+package org.zamecki.minesocket.services;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionTest {
+    private static final String POSITIONS = "positions";
+
+    private static long seqOf(String frame) {
+        return JsonParser.parseString(frame).getAsJsonObject().get("seq").getAsLong();
+    }
+
+    @Test
+    void numbersEveryFrame() {
+        RecordingClient connection = new RecordingClient("a");
+        Session session = new Session("s", connection, 8);
+
+        session.send("{\"tag\":\"t\",\"type\":\"reply\"}");
+        session.send("{}");
+        session.send("not json");
+        assertEquals(List.of("{\"tag\":\"t\",\"type\":\"reply\",\"seq\":1}", "{\"seq\":2}", "not json"),
+            connection.frames);
+    }
+
+    @Test
+    void replaysMissedFramesInOrderAcrossTopics() {
+        RecordingClient first = new RecordingClient("a");
+        Session session = new Session("s", first, 8);
+        session.send("{\"n\":1}");
+        session.detach(first);
+
+        session.send(POSITIONS, "{\"n\":2}");
+        session.send("{\"n\":3}");
+        session.send(POSITIONS, "{\"n\":4}");
+        assertEquals(1, first.frames.size());
+
+        RecordingClient second = new RecordingClient("b");
+        assertEquals(List.of(), session.resume(second, 1));
+
+        JsonObject resumed = JsonParser.parseString(second.frames.getFirst()).getAsJsonObject();
+        assertEquals("resumed", resumed.get("type").getAsString());
+        assertEquals(4, resumed.get("seq").getAsLong());
+        assertEquals(3, resumed.get("replayed").getAsInt());
+        assertEquals(List.of(2L, 3L, 4L), second.frames.subList(1, 4).stream().map(SessionTest::seqOf).toList());
+
+        // Live again on the new connection
+        session.send("{\"n\":5}");
+        assertEquals(5, seqOf(second.frames.getLast()));
+        assertEquals(1, first.frames.size());
+    }
+
+    @Test
+    void reportsTopicsThatLostFrames() {
+        RecordingClient first = new RecordingClient("a");
+        Session session = new Session("s", first, 2);
+        session.detach(first);
+        for (int i = 0; i < 5; i++) {
+            session.send(POSITIONS, "{}");
+        }
+        session.send("{}");
+
+        RecordingClient second = new RecordingClient("b");
+        assertEquals(List.of(POSITIONS), session.resume(second, 0));
+        // Only what still fits is replayed, the reply topic lost nothing
+        assertEquals(List.of(4L, 5L, 6L), second.frames.subList(1, 4).stream().map(SessionTest::seqOf).toList());
+
+        // A client that already got everything evicted has nothing lost
+        RecordingClient third = new RecordingClient("c");
+        assertEquals(List.of(), session.resume(third, 5));
+        assertEquals(2, third.frames.size());
+    }
+
+    @Test
+    void ignoresAStaleConnectionClosing() {
+        RecordingClient first = new RecordingClient("a");
+        Session session = new Session("s", first, 8);
+        RecordingClient second = new RecordingClient("b");
+        session.detach(first);
+        session.resume(second, 0);
+
+        // The old connection's close arrives late, the session stays on the new one
+        session.detach(first);
+        session.send("{}");
+        assertEquals(1, seqOf(second.frames.getLast()));
+    }
+
+    @Test
+    void expiresOnlyAfterTheGracePeriod() {
+        RecordingClient connection = new RecordingClient("a");
+        Session session = new Session("s", connection, 8);
+        assertFalse(session.expireIfDetached(Long.MAX_VALUE, 0));
+
+        session.detach(connection);
+        long detached = System.currentTimeMillis();
+        assertFalse(session.expireIfDetached(detached, 60_000));
+        assertTrue(session.isOpen());
+        assertTrue(session.expireIfDetached(detached + 120_000, 60_000));
+        assertFalse(session.isOpen());
+    }
+
+    @Test
+    void forwardsToTheSessionItResumed() {
+        RecordingClient connection = new RecordingClient("a");
+        Session previous = new Session("old", new RecordingClient("old"), 8);
+        Session current = new Session("new", connection, 8);
+        current.redirectTo(previous);
+        previous.detach(previous.getConnection());
+        previous.resume(connection, 0);
+
+        current.send("{}");
+        assertEquals(previous, current.resolve());
+        assertEquals(1, seqOf(connection.frames.getLast()));
+    }
+}
@@ -0,0 +1,65 @@
+package org.zamecki.minesocket.services;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TelemetryStreamTest {
+    private static final long MILLI = 1_000_000;
+
+    @Test
+    void reportsNothingBeforeTheFirstTick() {
+        JsonObject mspt = new TelemetryStream().mspt();
+        assertEquals(0.0, mspt.get("mean").getAsDouble());
+        assertEquals(0.0, mspt.get("p99").getAsDouble());
+        assertEquals(0.0, mspt.get("max").getAsDouble());
+    }
+
+    @Test
+    void computesPercentilesFromTheHistogram() {
+        TelemetryStream telemetry = new TelemetryStream();
+        // 1 to 100 ms, one tick each
+        for (int i = 1; i <= 100; i++) {
+            telemetry.record(i * MILLI - MILLI / 2);
+        }
+
+        JsonObject mspt = telemetry.mspt();
+        assertEquals(50.0, mspt.get("mean").getAsDouble());
+        assertEquals(49.6, mspt.get("p50").getAsDouble());
+        assertEquals(94.6, mspt.get("p95").getAsDouble());
+        assertEquals(98.6, mspt.get("p99").getAsDouble());
+        assertEquals(99.5, mspt.get("max").getAsDouble());
+    }
+
+    @Test
+    void reportsTheRealMaxAboveTheLastBucket() {
+        TelemetryStream telemetry = new TelemetryStream();
+        for (int i = 0; i < 99; i++) {
+            telemetry.record(5 * MILLI);
+        }
+        telemetry.record(850 * MILLI);
+
+        JsonObject mspt = telemetry.mspt();
+        assertEquals(850.0, mspt.get("max").getAsDouble());
+        assertEquals(5.1, mspt.get("p99").getAsDouble());
+
+        // Past the top bucket the percentile is bounded by the slowest tick, not by the bucket
+        telemetry.record(120 * MILLI);
+        assertEquals(850.0, telemetry.mspt().get("p99").getAsDouble());
+    }
+
+    @Test
+    void forgetsTicksThatLeftTheWindow() {
+        TelemetryStream telemetry = new TelemetryStream();
+        telemetry.record(400 * MILLI);
+        for (int i = 0; i < 1200; i++) {
+            telemetry.record(2 * MILLI);
+        }
+
+        JsonObject mspt = telemetry.mspt();
+        assertEquals(2.0, mspt.get("max").getAsDouble());
+        assertEquals(2.0, mspt.get("mean").getAsDouble());
+        assertEquals(2.0, mspt.get("p99").getAsDouble());
+    }
+}
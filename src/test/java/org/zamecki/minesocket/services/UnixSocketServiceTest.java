@@ -0,0 +1,163 @@
+package org.zamecki.minesocket.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.zamecki.minesocket.config.MineSocketConfiguration;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class UnixSocketServiceTest {
+    @TempDir
+    Path directory;
+
+    private Path socket;
+    private final List<Client> connected = new CopyOnWriteArrayList<>();
+    private final List<Client> disconnected = new CopyOnWriteArrayList<>();
+    private UnixSocketService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        socket = directory.resolve("minesocket.sock");
+        Path file = directory.resolve("minesocket.toml");
+        Files.writeString(file, "unix_socket = \"" + socket + "\"\n");
+        MineSocketConfiguration config = new MineSocketConfiguration(file);
+        service = new UnixSocketService(config, new MessageHandler() {
+            @Override
+            public Client connected(Client connection) {
+                connected.add(connection);
+                return connection;
+            }
+
+            @Override
+            public void handleMessage(Client client, String message) {
+                client.send(message);
+            }
+
+            @Override
+            public void disconnected(Client client) {
+                disconnected.add(client);
+            }
+        }, new AuditLog(config));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    void replacesAStaleSocket() throws IOException {
+        // Bound and closed without deleting it, like after a crash
+        ServerSocketChannel crashed = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        crashed.bind(UnixDomainSocketAddress.of(socket));
+        crashed.close();
+        assertTrue(Files.exists(socket));
+
+        service.start();
+        try (SocketChannel client = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            assertEquals("hello", roundTrip(client, "hello"));
+        }
+    }
+
+    @Test
+    void leavesARegularFileAlone() throws IOException {
+        Files.writeString(socket, "important");
+
+        service.start();
+        assertEquals("important", Files.readString(socket));
+        assertThrows(IOException.class, () -> SocketChannel.open(UnixDomainSocketAddress.of(socket)));
+    }
+
+    @Test
+    void leavesASocketInUseAlone() throws IOException {
+        try (ServerSocketChannel other = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            other.bind(UnixDomainSocketAddress.of(socket));
+
+            service.start();
+            assertTrue(Files.exists(socket));
+            try (SocketChannel client = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+                 SocketChannel accepted = other.accept()) {
+                // Still the other process that answers
+                assertTrue(accepted.isConnected());
+                assertTrue(client.isConnected());
+            }
+            assertTrue(connected.isEmpty());
+        }
+    }
+
+    @Test
+    void stoppingDisconnectsEveryClient() throws IOException {
+        service.start();
+        try (SocketChannel first = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+             SocketChannel second = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            await(() -> connected.size() == 2);
+
+            service.stop();
+            assertEquals(2, disconnected.size());
+            assertTrue(disconnected.containsAll(connected));
+            assertFalse(disconnected.getFirst().isOpen());
+            assertFalse(Files.exists(socket));
+
+            // Both peers see the connection end
+            assertEquals(-1, first.read(ByteBuffer.allocate(1)));
+            assertEquals(-1, second.read(ByteBuffer.allocate(1)));
+        }
+        // Closing the peers afterwards does not report them a second time
+        assertEquals(2, disconnected.size());
+    }
+
+    private static String roundTrip(SocketChannel client, String message) throws IOException {
+        byte[] bytes = message.getBytes();
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes).flip();
+        while (frame.hasRemaining()) {
+            client.write(frame);
+        }
+
+        ByteBuffer header = readFully(client, Integer.BYTES);
+        return new String(readFully(client, header.getInt(0)).array());
+    }
+
+    private static ByteBuffer readFully(SocketChannel client, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (client.read(buffer) < 0) {
+                fail("Connection closed early");
+            }
+        }
+        return buffer;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for the unix socket");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted");
+            }
+        }
+    }
+}